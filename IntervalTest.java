@@ -35,15 +35,87 @@ class Key {
     }
 }
 
+// Interval quality
+enum Quality {
+    PERFECT, MAJOR, MINOR, AUGMENTED, DIMINISHED
+}
+
+// Simple intervals within one octave, indexed by half steps
+enum Interval {
+    UNISON(0, Quality.PERFECT, 1, "Unison"),
+    MINOR_SECOND(1, Quality.MINOR, 2, "Minor 2nd (Half step)"),
+    MAJOR_SECOND(2, Quality.MAJOR, 2, "Major 2nd (Whole step)"),
+    MINOR_THIRD(3, Quality.MINOR, 3, "Minor 3rd (m3)"),
+    MAJOR_THIRD(4, Quality.MAJOR, 3, "Major 3rd (M3)"),
+    PERFECT_FOURTH(5, Quality.PERFECT, 4, "Perfect 4th"),
+    TRITONE(6, Quality.AUGMENTED, 4, "Augmented 4th/Diminished 5th "),
+    PERFECT_FIFTH(7, Quality.PERFECT, 5, "Perfect 5th"),
+    MINOR_SIXTH(8, Quality.MINOR, 6, "Minor 6th"),
+    MAJOR_SIXTH(9, Quality.MAJOR, 6, "Major 6th"),
+    MINOR_SEVENTH(10, Quality.MINOR, 7, "Minor 7th"),
+    MAJOR_SEVENTH(11, Quality.MAJOR, 7, "Major 7th");
+
+    private static final Interval[] BY_HALF_STEPS = values();
+
+    private final int halfSteps;
+    private final Quality quality;
+    private final int number;
+    private final String label;
+
+    Interval(int halfSteps, Quality quality, int number, String label) {
+        this.halfSteps = halfSteps;
+        this.quality = quality;
+        this.number = number;
+        this.label = label;
+    }
+
+    // Returns the simple interval for any half-step distance (compound intervals reduce within the octave)
+    public static Interval ofHalfSteps(int halfSteps) {
+        return BY_HALF_STEPS[Math.abs(halfSteps) % 12];
+    }
+
+    // Returns the number of whole octaves in a half-step distance
+    public static int compoundOctaves(int halfSteps) {
+        return Math.abs(halfSteps) / 12;
+    }
+
+    // Returns half steps within the octave (0-11)
+    public int getHalfSteps() {
+        return this.halfSteps;
+    }
+
+    // Returns interval quality (perfect, major, minor, ...)
+    public Quality getQuality() {
+        return this.quality;
+    }
+
+    // Returns interval number (1 = unison, 2 = second, ...)
+    public int getNumber() {
+        return this.number;
+    }
+
+    // Returns display name used by Keyboard.getIntervalName
+    public String getLabel() {
+        return this.label;
+    }
+}
+
 class Keyboard {
     protected final int NUMBER_KEYS = 88;
     protected Key[] keys;
     private final String[] NOTE_NAMES = {"A", "A#", "B", "C", "C#", "D", "D#", "E", "F", "F#", "G", "G#"};
+    private static final int[] LETTER_SEMITONES = {9, 11, 0, 2, 4, 5, 7}; // A-G relative to C
+    private String[] intervalNames; // getIntervalName results for every distance on the keyboard
     
     // Creates standard 88-key piano keyboard
     public Keyboard() {
         this.keys = new Key[NUMBER_KEYS];
         generateKeys();
+
+        this.intervalNames = new String[NUMBER_KEYS];
+        for (int i = 0; i < NUMBER_KEYS; i++) {
+            intervalNames[i] = buildIntervalName(i);
+        }
     }
     
     // Generates all 88 piano keys
@@ -118,30 +190,45 @@ class Keyboard {
         return Math.abs(key1.getKeyNum() - key2.getKeyNum());
     }
     
+    // Classifies the interval between two key numbers without allocating
+    public Interval classifyInterval(int keyNum1, int keyNum2) {
+        return Interval.ofHalfSteps(keyNum1 - keyNum2);
+    }
+
+    // Classifies many key-number pairs in one pass; octaves may be null if compound octaves are not needed
+    public void classifyIntervals(int[] keyNums1, int[] keyNums2, Interval[] intervals, int[] octaves) {
+        for (int i = 0; i < keyNums1.length; i++) {
+            int halfSteps = Math.abs(keyNums1[i] - keyNums2[i]);
+            intervals[i] = Interval.ofHalfSteps(halfSteps);
+            if (octaves != null) {
+                octaves[i] = halfSteps / 12;
+            }
+        }
+    }
+
     // Returns the musical name for a given interval
     public String getIntervalName(int halfSteps) {
+        if (halfSteps >= 0 && halfSteps < NUMBER_KEYS) {
+            return intervalNames[halfSteps];
+        }
+        return buildIntervalName(halfSteps);
+    }
+
+    // Builds the musical name for a given interval
+    private String buildIntervalName(int halfSteps) {
         // Get interval quality within an octave
         int intervalWithinOctave = halfSteps % 12;
         
         // Determine octave displacement
         int octaves = halfSteps / 12;
         
-        String baseInterval = "";
-        switch (intervalWithinOctave) {
-            case 0: baseInterval = octaves == 0 ? "Unison" : "Octave"; break;
-            case 1: baseInterval = "Minor 2nd (Half step)"; break;
-            case 2: baseInterval = "Major 2nd (Whole step)"; break;
-            case 3: baseInterval = "Minor 3rd (m3)"; break;
-            case 4: baseInterval = "Major 3rd (M3)"; break;
-            case 5: baseInterval = "Perfect 4th"; break;
-            case 6: baseInterval = "Augmented 4th/Diminished 5th "; break;
-            case 7: baseInterval = "Perfect 5th"; break;
-            case 8: baseInterval = "Minor 6th"; break;
-            case 9: baseInterval = "Major 6th"; break;
-            case 10: baseInterval = "Minor 7th"; break;
-            case 11: baseInterval = "Major 7th"; break;
-            default:
-                baseInterval = "Interval of " + intervalWithinOctave + " half steps";
+        String baseInterval;
+        if (intervalWithinOctave == 0) {
+            baseInterval = octaves == 0 ? "Unison" : "Octave";
+        } else if (intervalWithinOctave > 0) {
+            baseInterval = Interval.ofHalfSteps(intervalWithinOctave).getLabel();
+        } else {
+            baseInterval = "Interval of " + intervalWithinOctave + " half steps";
         }
         
         // Add compound interval information if needed
@@ -154,14 +241,58 @@ class Keyboard {
         }
     }
 
-    // Finds a key by its note name
-    public Key findKeyByName(String name) {
-        for (Key key : keys) {
-            if (key.getName().equals(name)) {
-                return key;
+    // Finds a key by its note name, e.g. "C4", "Eb4", "f##2", "Bbb3"; returns null if not on the keyboard
+    public Key findKeyByName(CharSequence name) {
+        int keyNum = parseKeyNum(name);
+        return keyNum > 0 ? keys[keyNum - 1] : null;
+    }
+
+    // Parses a note name into a key number (1-88) without allocating; returns -1 if invalid or off the keyboard
+    // Accepts a letter A-G in either case, any number of '#', 'x' (double sharp) or 'b' accidentals, then the octave
+    public static int parseKeyNum(CharSequence name) {
+        int length = name.length();
+        if (length < 2) {
+            return -1;
+        }
+
+        int letter = Character.toUpperCase(name.charAt(0)) - 'A';
+        if (letter < 0 || letter > 6) {
+            return -1;
+        }
+        int semitone = LETTER_SEMITONES[letter];
+
+        int i = 1;
+        for (; i < length; i++) {
+            char c = name.charAt(i);
+            if (c == '#') {
+                semitone++;
+            } else if (c == 'x' || c == 'X') {
+                semitone += 2;
+            } else if (c == 'b' || c == 'B') {
+                semitone--;
+            } else {
+                break;
             }
         }
-        return null;
+
+        if (i == length) {
+            return -1;
+        }
+        int octave = 0;
+        for (; i < length; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            octave = octave * 10 + (c - '0');
+            if (octave > 9) {
+                return -1;
+            }
+        }
+
+        // C4 is key 40
+        int keyNum = octave * 12 + semitone - 8;
+        return keyNum >= 1 && keyNum <= 88 ? keyNum : -1;
     }
 }
 
@@ -191,7 +322,7 @@ public class IntervalTest {
         Key d4 = piano.findKeyByName("D4");
         Key e4 = piano.findKeyByName("E4");
         Key e5 = piano.findKeyByName("E5");
-        Key eFlat4 = piano.findKeyByName("D#4"); // Enharmonic to Eb4
+        Key eFlat4 = piano.findKeyByName("Eb4"); // Same key as D#4
         
         // Test half step (B3 to C4)
         if (b3 != null && c4 != null) {
@@ -229,3 +360,23 @@ public class IntervalTest {
         }
     }
 }
+
+// Headless micro-benchmarks for the key model, name lookup and interval naming, timed by outdated/Bench
+// Usage: javac -sourcepath outdated IntervalTest.java && java IntervalBenchmark
+class IntervalBenchmark {
+    public static void main(String[] args) throws Exception {
+        Keyboard piano = new Keyboard();
+        String[] names = new String[88];
+        for (int i = 0; i < 88; i++) {
+            names[i] = piano.keys[i].getName();
+        }
+        int[] n = {0};
+
+        Bench.measure("keyboard.create", 20000, Keyboard::new);
+        Bench.measure("findKeyByName", 2000000, () -> piano.findKeyByName(names[n[0]++ % 88]));
+        Bench.measure("findKeyByName (flat)", 2000000, () -> piano.findKeyByName("Eb4"));
+        Bench.measure("getIntervalName", 2000000, () -> piano.getIntervalName(n[0]++ % 88));
+        Bench.measure("classifyInterval", 2000000, () -> piano.classifyInterval(40, n[0]++ % 88 + 1));
+        Bench.measure("getKeyPlayed", 200000, () -> piano.getKeyPlayed(n[0]++ % 88));
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Software mixer that plays every note through a single SourceDataLine
+ * Callers only enqueue note commands on lock-free NoteQueues (one per producer thread); a dedicated render thread
+ * drains them at the start of each block and sums all active voices into a fixed block
+ * and writes the block to the line, so polyphony is no longer limited by how many Clips the mixer hands out
+ * Voices come from a fixed pool sized at construction; when it is full the quietest voice (oldest on a tie) is stolen
+ * A note-off fades its voice out and frees it, unless the sustain pedal is down, in which case the voice keeps
+ * sounding until the pedal is lifted; striking a key again fades out the voice it was already playing
+ * The render loop works only on preallocated arrays so playing never creates garbage
+ * A NoteSequencer can be attached to play events at exact sample offsets inside each block
+ * Every command drained from the input queues can also be handed to a NoteRecorder, which never blocks the render thread
+ * An EffectsChain, if set, processes the mixed block in place before it is converted to 16-bit
+ * The line is opened with room for BufferTuner.MAX_BLOCKS, but the render thread only keeps the tuner's target queued,
+ * waiting for the line to drain down to it before rendering the next block; so the latency can change while playing
+ * without reopening the line, and notes are mixed as late as possible
+ * Sample fetch, line write and queue-to-first-buffer latencies, notes played, failures and underruns go to AudioMetrics
+ */
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.sampled.*;
+
+public class AudioEngine implements Runnable, NoteQueue.Consumer {
+    public static final int BLOCK_FRAMES = 256; // Frames mixed per render pass
+    protected static final int LINE_BLOCKS = 4; // Blocks of audio kept queued in the output line unless configured
+    protected static final int QUEUE_SIZE = 256; // Note commands each input queue holds between render passes
+    public static final int DEFAULT_POLYPHONY = 64; // Voices available when no limit is given
+
+    protected SampleSource samples;
+    protected SourceDataLine line;
+    protected Thread renderThread;
+    protected volatile boolean running;
+
+    protected float [] mixLeft = new float [BLOCK_FRAMES]; // Mix bus, reused every block
+    protected float [] mixRight = new float [BLOCK_FRAMES];
+    protected byte [] output = new byte [BLOCK_FRAMES * SampleBank.FRAME_SIZE]; // 16-bit block written to the line
+    protected Voice [] voices; // Preallocated voice pool, touched only by the render thread
+    protected long noteCounter; // Orders voices by start time
+    protected volatile int activeVoices; // Voices sounding after the last block
+    protected volatile long stealCount; // Note-ons that had to take over a sounding voice
+    protected volatile long frameClock; // Frames rendered since the engine was created
+    protected volatile NoteSequencer sequencer; // Sequence being played, if any
+    protected volatile boolean sustain; // Sustain pedal state, changed only by the render thread
+    protected volatile NoteRecorder recorder; // Log of every command from the input queues, if recording
+    protected volatile NoteRecorder blockRecorder; // Recorder the render thread is using for the current block
+    protected volatile EffectsChain effects; // Master-bus effects, if any
+    protected BufferTuner buffer = new BufferTuner(); // How much audio to keep queued in the line
+
+    protected AudioMetrics metrics = AudioMetrics.get();
+    protected long [] blockNoteTimes = new long [QUEUE_SIZE]; // Queue times of notes started in the current block
+    protected int blockNotes;
+
+    protected volatile NoteQueue [] inputs = new NoteQueue [0]; // Every producer's queue, replaced whole when one is added
+    protected NoteQueue defaultQueue; // Queue behind noteOn()
+
+    public AudioEngine(SampleSource samples)
+    {
+        this(samples, DEFAULT_POLYPHONY);
+    }
+
+    public AudioEngine(SampleSource samples, int maxPolyphony)
+    {
+        if (maxPolyphony < 1)
+            { throw new IllegalArgumentException("maxPolyphony must be at least 1"); }
+        this.samples = samples;
+        this.voices = new Voice [maxPolyphony];
+        for (int i = 0; i < maxPolyphony; i++)
+            { this.voices[i] = samples.createVoice(); }
+        this.defaultQueue = createInputQueue();
+    }
+
+    // Creates a queue for one producer thread to send note commands to the render thread
+    public synchronized NoteQueue createInputQueue()
+    {
+        NoteQueue queue = new NoteQueue(QUEUE_SIZE);
+        NoteQueue [] grown = Arrays.copyOf(this.inputs, this.inputs.length + 1);
+        grown[grown.length - 1] = queue;
+        this.inputs = grown;
+        return queue;
+    }
+
+    // Stops draining a queue created by createInputQueue; commands still in it are lost, see NoteQueue.close()
+    public synchronized void removeInputQueue(NoteQueue queue)
+    {
+        NoteQueue [] remaining = new NoteQueue [this.inputs.length];
+        int n = 0;
+        for (NoteQueue q : this.inputs)
+        {
+            if (q != queue)
+                { remaining[n++] = q; }
+        }
+        this.inputs = Arrays.copyOf(remaining, n);
+    }
+
+    // Returns the queue used by noteOn
+    public NoteQueue getDefaultQueue()
+    {
+        return this.defaultQueue;
+    }
+
+    // Opens the output line and starts the render thread
+    public void start() throws LineUnavailableException
+    {
+        try {
+            this.line = AudioSystem.getSourceDataLine(SampleBank.FORMAT);
+        }
+        catch (IllegalArgumentException e) { throw new LineUnavailableException("No line supports " + SampleBank.FORMAT); }
+        this.line.open(SampleBank.FORMAT, this.output.length * BufferTuner.MAX_BLOCKS);
+        this.line.start();
+
+        this.running = true;
+        this.renderThread = new Thread(this, "audio-render");
+        this.renderThread.setDaemon(true);
+        this.renderThread.setPriority(Thread.MAX_PRIORITY);
+        this.renderThread.start();
+    }
+
+    // Returns true between a successful start and stop
+    public boolean isRunning()
+    {
+        return this.running;
+    }
+
+    // Stops the render thread and releases the output line
+    public void stop()
+    {
+        this.running = false;
+        if (this.renderThread != null)
+        {
+            try { this.renderThread.join(); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        if (this.line != null)
+        {
+            this.line.drain();
+            this.line.close();
+        }
+    }
+
+    // Queues a key to start sounding on the next render pass; returns false if the queue is full
+    // Goes through the default queue, so only one thread may call it
+    public boolean noteOn(int keyNum)
+    {
+        return noteOn(keyNum, 127);
+    }
+
+    public boolean noteOn(int keyNum, int velocity)
+    {
+        return this.defaultQueue.offer(keyNum, true, velocity, System.nanoTime());
+    }
+
+    // Queues a key release; the key's voice fades out, or is held by the sustain pedal if it is down
+    public boolean noteOff(int keyNum)
+    {
+        return this.defaultQueue.offer(keyNum, false, 0, System.nanoTime());
+    }
+
+    // Queues pressing or lifting the sustain pedal
+    public boolean setSustain(boolean down)
+    {
+        return this.defaultQueue.offer(NoteQueue.SUSTAIN_PEDAL, down, 0, System.nanoTime());
+    }
+
+    // Returns true if the sustain pedal was down after the last rendered block
+    public boolean isSustain()
+    {
+        return this.sustain;
+    }
+
+    // Starts playing a sequence from the next block, replacing any sequence already playing
+    public void play(NoteSequencer sequencer)
+    {
+        this.sequencer = sequencer;
+    }
+
+    // Starts sending every incoming command to a recorder, or stops recording when given null
+    // The recorder is only told about commands; closing it is up to the caller, after detachRecorder
+    public void setRecorder(NoteRecorder recorder)
+    {
+        this.recorder = recorder;
+    }
+
+    // Stops recording and returns the recorder that was in use, once the render thread has moved on to a block that
+    // no longer uses it; after that nothing more is recorded into it, so it can be closed without losing commands
+    public NoteRecorder detachRecorder()
+    {
+        NoteRecorder old = this.recorder;
+        this.recorder = null;
+        while (old != null && this.blockRecorder == old && this.running && this.renderThread.isAlive())
+            { LockSupport.parkNanos(100_000L); }
+        return old;
+    }
+
+    public NoteRecorder getRecorder()
+    {
+        return this.recorder;
+    }
+
+    // Sets the master-bus effects applied to every block, or null for none; takes effect on the next block
+    public void setEffects(EffectsChain effects)
+    {
+        this.effects = effects;
+    }
+
+    public EffectsChain getEffects()
+    {
+        return this.effects;
+    }
+
+    // Returns the tuner choosing the output buffer size, to configure it or read its history
+    public BufferTuner getBufferTuner()
+    {
+        return this.buffer;
+    }
+
+    // Returns the sequence being played, or null
+    public NoteSequencer getSequencer()
+    {
+        return this.sequencer;
+    }
+
+    // Returns the number of frames rendered so far
+    public long getFrameClock()
+    {
+        return this.frameClock;
+    }
+
+    // Returns the number of voices that were sounding after the last rendered block
+    public int getActiveVoiceCount()
+    {
+        return this.activeVoices;
+    }
+
+    // Returns how many note-ons stole a sounding voice because the pool was full
+    public long getStealCount()
+    {
+        return this.stealCount;
+    }
+
+    // Returns the size of the voice pool
+    public int getMaxPolyphony()
+    {
+        return this.voices.length;
+    }
+
+    public void run()
+    {
+        boolean started = false; // The line is empty before the first write without having run dry
+        while (this.running)
+        {
+            waitForRoom();
+            renderBlock();
+
+            // A completely empty line buffer means the device ran dry before this block arrived
+            int queued = (this.line.getBufferSize() - this.line.available()) / SampleBank.FRAME_SIZE;
+            if (started && this.buffer.blockWritten(System.nanoTime(), queued))
+                { this.metrics.underrun(); }
+            started = true;
+            long writeStart = System.nanoTime();
+            this.line.write(this.output, 0, this.output.length);
+            long written = System.nanoTime();
+            this.metrics.record(AudioMetrics.Stage.LINE_WRITE, written - writeStart);
+            for (int i = 0; i < this.blockNotes; i++)
+                { this.metrics.record(AudioMetrics.Stage.FIRST_BUFFER, written - this.blockNoteTimes[i]); }
+        }
+    }
+
+    // Sleeps until the line holds no more than the target less one block, so the next block brings it up to the target
+    private void waitForRoom()
+    {
+        while (this.running)
+        {
+            int queued = (this.line.getBufferSize() - this.line.available()) / SampleBank.FRAME_SIZE;
+            int excess = queued - (this.buffer.getTargetBlocks() - 1) * BLOCK_FRAMES;
+            if (excess <= 0)
+                { return; }
+            LockSupport.parkNanos((long) (excess * 1e9 / SampleBank.SAMPLE_RATE));
+        }
+    }
+
+    // Starts queued notes, mixes one block of all active voices and converts it to 16-bit output
+    public void renderBlock()
+    {
+        this.blockNotes = 0;
+        this.blockRecorder = this.recorder;
+        for (NoteQueue queue : this.inputs)
+        {
+            // Closed before the drain, so the drain takes its last commands and it can go
+            boolean closed = queue.isClosed();
+            queue.drain(this);
+            if (closed)
+                { removeInputQueue(queue); }
+        }
+
+        Arrays.fill(this.mixLeft, 0f);
+        Arrays.fill(this.mixRight, 0f);
+
+        // Render up to each due sequencer event, apply it, and carry on from that sample
+        int done = 0;
+        NoteSequencer seq = this.sequencer;
+        if (seq != null)
+        {
+            if (!seq.isStarted())
+                { seq.start(this.frameClock); }
+            while (done < BLOCK_FRAMES)
+            {
+                int next = seq.nextEventOffset(this.frameClock, BLOCK_FRAMES);
+                renderVoices(done, next - done);
+                done = next;
+                if (next < BLOCK_FRAMES)
+                    { handleEvent(seq.next()); }
+            }
+            if (seq.isFinished() && this.sequencer == seq)
+                { this.sequencer = null; }
+        }
+        renderVoices(done, BLOCK_FRAMES - done);
+        this.frameClock += BLOCK_FRAMES;
+
+        EffectsChain chain = this.effects;
+        if (chain != null)
+            { chain.process(this.mixLeft, this.mixRight, 0, BLOCK_FRAMES); }
+
+        int active = 0;
+        for (Voice voice : this.voices)
+        {
+            if (voice.isActive())
+                { active++; }
+        }
+        this.activeVoices = active;
+
+        int b = 0;
+        for (int i = 0; i < BLOCK_FRAMES; i++)
+        {
+            b = writeSample(this.mixLeft[i], b);
+            b = writeSample(this.mixRight[i], b);
+        }
+    }
+
+    // Mixes a span of the current block from every active voice
+    private void renderVoices(int offset, int frames)
+    {
+        if (frames == 0)
+            { return; }
+        for (Voice voice : this.voices)
+        {
+            if (voice.isActive())
+                { voice.render(this.mixLeft, this.mixRight, offset, frames); }
+        }
+    }
+
+    // Applies a sequenced event
+    private void handleEvent(NoteEvent e)
+    {
+        if (e.isPedal())
+            { setPedal(e.isNoteOn()); }
+        else if (e.isNoteOn())
+            { startNote(e.getKeyNum(), e.getGain()); }
+        else
+            { stopNote(e.getKeyNum()); }
+    }
+
+    // Starts a key on a free or stolen voice; returns false if the key has no audio
+    private boolean startNote(int keyNum, float gain)
+    {
+        long fetchStart = System.nanoTime();
+        Sample sample = this.samples.getSample(keyNum);
+        this.metrics.record(AudioMetrics.Stage.SAMPLE_FETCH, System.nanoTime() - fetchStart);
+        if (sample == null)
+        {
+            this.metrics.failure();
+            return false;
+        }
+        for (Voice voice : this.voices)
+        {
+            if (voice.isActive() && voice.getKeyNum() == keyNum)
+                { voice.release(Voice.RELEASE_FRAMES); }
+        }
+        allocateVoice().start(keyNum, sample, this.samples.getPitchRatio(keyNum), gain, this.noteCounter++);
+        this.metrics.notePlayed();
+        return true;
+    }
+
+    // Releases the voices still held by a key, or leaves them to the sustain pedal
+    private void stopNote(int keyNum)
+    {
+        for (Voice voice : this.voices)
+        {
+            if (!voice.isActive() || !voice.isHeld() || voice.getKeyNum() != keyNum)
+                { continue; }
+            if (this.sustain)
+                { voice.sustain(); }
+            else
+                { voice.release(Voice.RELEASE_FRAMES); }
+        }
+    }
+
+    // Presses or lifts the sustain pedal; lifting it releases every voice whose key is already up
+    private void setPedal(boolean down)
+    {
+        this.sustain = down;
+        if (down)
+            { return; }
+        for (Voice voice : this.voices)
+        {
+            if (voice.isActive() && voice.isSustained())
+                { voice.release(Voice.RELEASE_FRAMES); }
+        }
+    }
+
+    // Applies a command drained from an input queue
+    public void onNote(int keyNum, boolean noteOn, int velocity, long nanos)
+    {
+        NoteRecorder log = this.blockRecorder;
+        if (log != null)
+            { log.record(keyNum, noteOn, velocity, nanos); }
+
+        if (keyNum == NoteQueue.SUSTAIN_PEDAL)
+            { setPedal(noteOn); }
+        else if (!noteOn)
+            { stopNote(keyNum); }
+        else if (startNote(keyNum, velocity / 127f) && this.blockNotes < this.blockNoteTimes.length)
+            { this.blockNoteTimes[this.blockNotes++] = nanos; }
+    }
+
+    // Returns a free voice, or steals the quietest sounding voice (oldest on a tie) when none is free
+    private Voice allocateVoice()
+    {
+        Voice victim = null;
+        for (Voice voice : this.voices)
+        {
+            if (!voice.isActive())
+                { return voice; }
+            if (victim == null || voice.getLevel() < victim.getLevel()
+                || (voice.getLevel() == victim.getLevel() && voice.getStartOrder() < victim.getStartOrder()))
+                { victim = voice; }
+        }
+        this.stealCount++;
+        victim.stop();
+        return victim;
+    }
+
+    // Clips a float sample to 16 bits and stores it little-endian in the output block
+    private int writeSample(float value, int b)
+    {
+        int s = (int) (value * 32767f);
+        if (s > Short.MAX_VALUE) { s = Short.MAX_VALUE; }
+        else if (s < Short.MIN_VALUE) { s = Short.MIN_VALUE; }
+        this.output[b] = (byte) s;
+        this.output[b + 1] = (byte) (s >> 8);
+        return b + 2;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Key-press-to-sound instrumentation shared by the GUI, the Keyboard backend and the AudioEngine
+ * Each stage of a note's trip records into its own LatencyHistogram:
+ *      EVENT_DISPATCH  input event created -> key handler running on the EDT (millisecond resolution, from
+ *                      MouseEvent.getWhen in KeyboardPanel and KeyEvent.getWhen for the computer keys)
+ *      NOTE_ENQUEUE    Keyboard.playKeyAudio: offering the note to the engine's input queue, or sending it to a NoteServer
+ *      SAMPLE_FETCH    time to get the key's sample from the SampleSource
+ *      LINE_WRITE      time spent in SourceDataLine.write per block
+ *      FIRST_BUFFER    note queued -> first block containing it handed to the line
+ * Counters track notes played, failures (missing audio, no output line) and buffer underruns
+ * Everything is published over JMX under the "Keyboard" domain and can be dumped to a text file;
+ * set -Dkeyboard.metrics.dump=<file> to write the dump when the JVM exits
+ */
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+public class AudioMetrics implements AudioMetricsMBean {
+    public enum Stage { EVENT_DISPATCH, NOTE_ENQUEUE, SAMPLE_FETCH, LINE_WRITE, FIRST_BUFFER }
+
+    protected static final AudioMetrics INSTANCE = new AudioMetrics();
+    protected static boolean dumpInstalled;
+
+    protected final LatencyHistogram [] stages = new LatencyHistogram [Stage.values().length];
+    protected final LongAdder notesPlayed = new LongAdder();
+    protected final LongAdder failures = new LongAdder();
+    protected final LongAdder underruns = new LongAdder();
+
+    protected AudioMetrics()
+    {
+        for (Stage stage : Stage.values())
+            { this.stages[stage.ordinal()] = new LatencyHistogram(stage.name()); }
+    }
+
+    // Returns the process-wide metrics
+    public static AudioMetrics get()
+    {
+        return INSTANCE;
+    }
+
+    // Publishes the metrics as MBeans, replacing any registered under the same names, and installs the exit dump
+    // if requested (once, however often this is called)
+    public static synchronized void register()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            replace(server, INSTANCE, new ObjectName("Keyboard:type=AudioMetrics"));
+            for (LatencyHistogram h : INSTANCE.stages)
+                { replace(server, h, new ObjectName("Keyboard:type=Latency,stage=" + h.getStage())); }
+        }
+        catch (JMException e) { System.out.println("Error: Could not register audio metrics (" + e.getMessage() + ")"); }
+
+        String dumpPath = System.getProperty("keyboard.metrics.dump");
+        if (dumpPath != null && !dumpInstalled)
+        {
+            dumpInstalled = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try { INSTANCE.dump(dumpPath); }
+                catch (IOException e) { System.out.println("Error: Could not write " + dumpPath); }
+            }));
+        }
+    }
+
+    private static void replace(MBeanServer server, Object mbean, ObjectName name) throws JMException
+    {
+        if (server.isRegistered(name))
+            { server.unregisterMBean(name); }
+        server.registerMBean(mbean, name);
+    }
+
+    // Records a latency for a stage in nanoseconds
+    public void record(Stage stage, long nanos)
+    {
+        this.stages[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage)
+    {
+        return this.stages[stage.ordinal()];
+    }
+
+    public void notePlayed()
+    {
+        this.notesPlayed.increment();
+    }
+
+    public void failure()
+    {
+        this.failures.increment();
+    }
+
+    public void underrun()
+    {
+        this.underruns.increment();
+    }
+
+    public long getNotesPlayed()
+    {
+        return this.notesPlayed.sum();
+    }
+
+    public long getFailures()
+    {
+        return this.failures.sum();
+    }
+
+    public long getUnderruns()
+    {
+        return this.underruns.sum();
+    }
+
+    // Writes every counter and histogram to a text file
+    public void dump(String path) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(new FileWriter(path)))
+            { out.print(this); }
+    }
+
+    public void reset()
+    {
+        for (LatencyHistogram h : this.stages)
+            { h.reset(); }
+        this.notesPlayed.reset();
+        this.failures.reset();
+        this.underruns.reset();
+    }
+
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("notesPlayed=").append(getNotesPlayed()).append(" failures=").append(getFailures())
+          .append(" underruns=").append(getUnderruns()).append(System.lineSeparator());
+        for (LatencyHistogram h : this.stages)
+            { sb.append(h).append(System.lineSeparator()); }
+        return sb.toString();
+    }
+}
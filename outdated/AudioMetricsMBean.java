@@ -0,0 +1,11 @@
+/*
+ * JMX view of the audio path counters; per-stage latencies are published as separate LatencyHistogram MBeans
+ */
+
+public interface AudioMetricsMBean {
+    long getNotesPlayed();
+    long getFailures();
+    long getUnderruns();
+    void dump(String path) throws java.io.IOException;
+    void reset();
+}
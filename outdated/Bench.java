@@ -0,0 +1,46 @@
+/*
+ * Warm-up, timing and reporting shared by the headless benchmarks (KeyboardBenchmark, and IntervalBenchmark in
+ * IntervalTest.java)
+ * Each operation is run for a few untimed trials so the JIT has compiled it, then timed over several trials; the best
+ * and mean time per operation are printed
+ * Results are written to a static sink so the JIT cannot drop the measured work
+ * Uses nothing but the JDK, so IntervalTest.java can compile it alongside its own Keyboard with -sourcepath outdated
+ */
+
+final class Bench {
+    static final int WARMUP_TRIALS = 3;
+    static final int TRIALS = 5;
+    static volatile Object sink; // Keeps benchmark results alive
+
+    // A benchmarked operation; returns something derived from its work
+    interface Operation
+    {
+        Object run() throws Exception;
+    }
+
+    private Bench()
+    {
+    }
+
+    // Times iterations of an operation per trial and prints ns/op
+    static void measure(String name, int iterations, Operation op) throws Exception
+    {
+        for (int t = 0; t < WARMUP_TRIALS; t++)
+        {
+            for (int i = 0; i < iterations; i++)
+                { sink = op.run(); }
+        }
+        double best = Double.MAX_VALUE;
+        double total = 0;
+        for (int t = 0; t < TRIALS; t++)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                { sink = op.run(); }
+            double perOp = (System.nanoTime() - start) / (double) iterations;
+            best = Math.min(best, perOp);
+            total += perOp;
+        }
+        System.out.printf("%-40s %14.1f ns/op (best) %14.1f ns/op (mean)%n", name, best, total / TRIALS);
+    }
+}
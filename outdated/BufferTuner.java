@@ -0,0 +1,242 @@
+/*
+ * Chooses how much audio the AudioEngine keeps queued in its output line, which is its output latency
+ * The engine reports how much was still queued each time it writes a block; an empty line means the render thread
+ * missed its deadline and the device played silence (an underrun)
+ * With adaptive sizing on, the target follows what the machine can sustain:
+ *      an underrun raises the target by a block straight away
+ *      after a quiet period with at least LOWER_MARGIN to spare on every write, the target drops by a block
+ *      an underrun soon after a drop doubles the quiet period needed before the next drop, so a box that cannot
+ *      hold a size does not keep retrying it
+ * Every change is kept in a short history along with the underrun count; all of it is published over JMX
+ * Only the render thread changes the target and writes the history, so it never waits on a reader: sizes set from
+ * other threads are requests it applies before its next write, and readers copy the history under a sequence count,
+ * retrying if the render thread wrote to it meanwhile
+ * Set -Dkeyboard.buffer.blocks=<n> for the starting size and -Dkeyboard.buffer.adaptive=false to keep it fixed
+ */
+
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.*;
+
+public class BufferTuner implements BufferTunerMBean {
+    public enum Reason { START, SET, UNDERRUN, QUIET }
+
+    public static final int MIN_BLOCKS = 2; // One block playing while the next is rendered
+    public static final int MAX_BLOCKS = 32; // 186 ms of 256-frame blocks
+    protected static final long QUIET_NANOS = 10_000_000_000L; // Underrun-free time before the first drop
+    protected static final long MAX_QUIET_NANOS = 300_000_000_000L;
+    protected static final int LOWER_MARGIN = AudioEngine.BLOCK_FRAMES * 3 / 2; // Frames left queued to allow a drop
+    protected static final int HISTORY = 64; // Changes remembered
+
+    protected final int blockFrames;
+    protected volatile int targetBlocks; // Written only by the render thread
+    protected final AtomicInteger requestedBlocks = new AtomicInteger(); // Size set from another thread, 0 for none
+    protected volatile boolean adaptive;
+    protected volatile long underruns;
+    protected final long startNanos = System.nanoTime();
+
+    // Render thread only
+    protected long quietSince; // Time of the last underrun or size change
+    protected long quietNanos = QUIET_NANOS; // Current wait before a drop, grows after drops that fail
+    protected long loweredAt = -1; // Time of the last drop, while a failure can still be blamed on it
+    protected int minQueued = Integer.MAX_VALUE; // Fewest frames queued at a write since quietSince
+
+    // History ring, oldest overwritten first; written only by the render thread
+    protected final long [] changeNanos = new long [HISTORY];
+    protected final int [] changeFrom = new int [HISTORY];
+    protected final int [] changeTo = new int [HISTORY];
+    protected final Reason [] changeReason = new Reason [HISTORY];
+    protected final long [] changeUnderruns = new long [HISTORY];
+    protected int changes;
+    protected volatile int sequence; // Odd while an entry is being written
+
+    public BufferTuner()
+    {
+        this(Integer.getInteger("keyboard.buffer.blocks", AudioEngine.LINE_BLOCKS),
+             !"false".equals(System.getProperty("keyboard.buffer.adaptive")));
+    }
+
+    public BufferTuner(int blocks, boolean adaptive)
+    {
+        this(AudioEngine.BLOCK_FRAMES, blocks, adaptive);
+    }
+
+    public BufferTuner(int blockFrames, int blocks, boolean adaptive)
+    {
+        this.blockFrames = blockFrames;
+        this.targetBlocks = clamp(blocks);
+        this.adaptive = adaptive;
+        this.quietSince = this.startNanos;
+        record(this.startNanos, this.targetBlocks, this.targetBlocks, Reason.START);
+    }
+
+    private static int clamp(int blocks)
+    {
+        return Math.max(MIN_BLOCKS, Math.min(MAX_BLOCKS, blocks));
+    }
+
+    // Blocks the engine should keep queued in the line
+    public int getTargetBlocks()
+    {
+        return this.targetBlocks;
+    }
+
+    // Output latency the target adds, in milliseconds
+    public double getLatencyMillis()
+    {
+        return this.targetBlocks * this.blockFrames * 1000.0 / SampleBank.SAMPLE_RATE;
+    }
+
+    // Sets the target, e.g. from a settings screen; applied by the render thread before its next write
+    // Adaptive sizing carries on from it if it is on
+    public void setTargetBlocks(int blocks)
+    {
+        this.requestedBlocks.set(clamp(blocks));
+    }
+
+    public boolean isAdaptive()
+    {
+        return this.adaptive;
+    }
+
+    public void setAdaptive(boolean adaptive)
+    {
+        this.adaptive = adaptive;
+    }
+
+    public long getUnderruns()
+    {
+        return this.underruns;
+    }
+
+    // Called by the render thread before each write with the frames still queued in the line; 0 is an underrun
+    // Returns true if it was one
+    public boolean blockWritten(long nanos, int queuedFrames)
+    {
+        int requested = this.requestedBlocks.getAndSet(0);
+        if (requested != 0)
+            { change(nanos, this.targetBlocks, requested, Reason.SET); }
+        int target = this.targetBlocks;
+        boolean underrun = queuedFrames <= 0;
+        if (underrun)
+        {
+            this.underruns++;
+            if (this.adaptive && target < MAX_BLOCKS)
+            {
+                // Failing soon after a drop means the smaller size was too small: wait longer before trying again
+                if (this.loweredAt >= 0 && nanos - this.loweredAt < this.quietNanos)
+                    { this.quietNanos = Math.min(MAX_QUIET_NANOS, this.quietNanos * 2); }
+                change(nanos, target, target + 1, Reason.UNDERRUN);
+            }
+            else
+                { record(nanos, target, target, Reason.UNDERRUN); }
+            this.loweredAt = -1;
+            this.quietSince = nanos;
+            this.minQueued = Integer.MAX_VALUE;
+            return true;
+        }
+
+        this.minQueued = Math.min(this.minQueued, queuedFrames);
+        if (nanos - this.quietSince < this.quietNanos)
+            { return false; }
+        this.loweredAt = -1; // Any drop has now held long enough to count as good
+        if (this.adaptive && target > MIN_BLOCKS && this.minQueued >= LOWER_MARGIN)
+        {
+            change(nanos, target, target - 1, Reason.QUIET);
+            this.loweredAt = nanos;
+        }
+        else
+        {
+            // Too close to running dry to drop a block this period; judge the next one afresh
+            this.quietSince = nanos;
+            this.minQueued = Integer.MAX_VALUE;
+        }
+        return false;
+    }
+
+    private void change(long nanos, int from, int to, Reason reason)
+    {
+        record(nanos, from, to, reason);
+        this.targetBlocks = to;
+        this.quietSince = nanos;
+        this.minQueued = Integer.MAX_VALUE;
+    }
+
+    private void record(long nanos, int from, int to, Reason reason)
+    {
+        this.sequence++;
+        VarHandle.storeStoreFence(); // Readers must see the odd sequence before any of the entry changes
+        int i = this.changes % HISTORY;
+        this.changeNanos[i] = nanos;
+        this.changeFrom[i] = from;
+        this.changeTo[i] = to;
+        this.changeReason[i] = reason;
+        this.changeUnderruns[i] = this.underruns;
+        this.changes++;
+        this.sequence++;
+    }
+
+    // Size changes and underruns, oldest first: seconds since start, reason, old and new size, underruns so far
+    public String [] getHistory()
+    {
+        long [] nanos = new long [HISTORY];
+        int [] from = new int [HISTORY];
+        int [] to = new int [HISTORY];
+        Reason [] reason = new Reason [HISTORY];
+        long [] underruns = new long [HISTORY];
+        int n;
+        while (true)
+        {
+            int before = this.sequence;
+            n = Math.min(this.changes, HISTORY);
+            int first = this.changes - n;
+            for (int k = 0; k < n; k++)
+            {
+                int i = (first + k) % HISTORY;
+                nanos[k] = this.changeNanos[i];
+                from[k] = this.changeFrom[i];
+                to[k] = this.changeTo[i];
+                reason[k] = this.changeReason[i];
+                underruns[k] = this.changeUnderruns[i];
+            }
+            VarHandle.acquireFence(); // The copies above must not be read after the second look at the sequence
+            if ((before & 1) == 0 && before == this.sequence)
+                { break; }
+            Thread.onSpinWait();
+        }
+
+        String [] lines = new String [n];
+        for (int k = 0; k < n; k++)
+        {
+            lines[k] = String.format("%9.3f s  %-8s %2d -> %2d blocks (%5.1f ms)  underruns %d",
+                                     (nanos[k] - this.startNanos) / 1e9, reason[k], from[k], to[k],
+                                     to[k] * this.blockFrames * 1000.0 / SampleBank.SAMPLE_RATE, underruns[k]);
+        }
+        return lines;
+    }
+
+    // Publishes the tuner under Keyboard:type=OutputBuffer, replacing an earlier engine's
+    public void register()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("Keyboard:type=OutputBuffer");
+            if (server.isRegistered(name))
+                { server.unregisterMBean(name); }
+            server.registerMBean(this, name);
+        }
+        catch (JMException e) { System.out.println("Error: Could not register buffer metrics (" + e.getMessage() + ")"); }
+    }
+
+    // Current size and the change history
+    public String report()
+    {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("buffer %d blocks (%.1f ms) %s, underruns %d%n", this.targetBlocks, getLatencyMillis(),
+                                  this.adaptive ? "adaptive" : "fixed", this.underruns));
+        for (String line : getHistory())
+            { text.append("    ").append(line).append(System.lineSeparator()); }
+        return text.toString();
+    }
+}
@@ -0,0 +1,13 @@
+/*
+ * JMX view of the output buffer size the AudioEngine is running with and how it got there
+ */
+
+public interface BufferTunerMBean {
+    int getTargetBlocks();
+    void setTargetBlocks(int blocks);
+    double getLatencyMillis();
+    boolean isAdaptive();
+    void setAdaptive(boolean adaptive);
+    long getUnderruns();
+    String [] getHistory();
+}
@@ -0,0 +1,513 @@
+/*
+ * Losslessly compressed sample bank, decoded in parallel at load time straight into the PCM buffers voices play from
+ * Each key is coded FLAC-style in blocks of BLOCK_FRAMES frames: the block picks the cheapest stereo pair out of
+ * left/right, left/side, right/side and mid/side, each channel picks the fixed polynomial predictor (order 0-4) that
+ * leaves the smallest residual, and residuals are Rice coded with one parameter per PARTITION samples
+ *
+ * Layout (little-endian):
+ *      Header  16 bytes: magic "PKCZ", version, entry count, table offset
+ *      Table   32 bytes per entry: keyNum, frames, channels (short), bits (short), block frames, data offset (long),
+ *              data length (long)
+ *      Data    one bitstream per entry (MSB first), each block starting on a byte boundary:
+ *                  stereo mode (2 bits), then for each of the two channels:
+ *                  predictor order (3 bits), order warm-up samples (17 bits signed),
+ *                  then for each partition a Rice parameter (5 bits) and its residuals
+ *
+ * Build a bank with: java CompressedSampleBank <sample directory> <bank file>
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
+
+public class CompressedSampleBank implements SampleSource {
+    protected static final int MAGIC = 0x5A434B50; // "PKCZ"
+    protected static final int VERSION = 1;
+    protected static final int HEADER_SIZE = 16;
+    protected static final int ENTRY_SIZE = 32;
+    protected static final int BLOCK_FRAMES = 4096; // Frames coded with one stereo mode and predictor per channel
+    protected static final int PARTITION = 1024; // Residuals sharing one Rice parameter
+    protected static final int MAX_ORDER = 4;
+    protected static final int WARMUP_BITS = 17; // Side channel samples need one bit more than 16-bit PCM
+    protected static final int PADDING = 8; // Zero bytes after each entry so the bit reader can run ahead
+
+    // Stereo modes: which two channels a block stores
+    protected static final int LEFT_RIGHT = 0;
+    protected static final int LEFT_SIDE = 1;
+    protected static final int RIGHT_SIDE = 2;
+    protected static final int MID_SIDE = 3;
+
+    protected Sample [] samples; // Decoded PCM indexed by keyNum
+
+    // Maps a bank file and decodes every key on the common fork-join pool
+    public CompressedSampleBank(File bankFile) throws IOException
+    {
+        this(bankFile, ForkJoinPool.commonPool());
+    }
+
+    public CompressedSampleBank(File bankFile, ForkJoinPool pool) throws IOException
+    {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(bankFile.toPath(), StandardOpenOption.READ))
+        {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer bank = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (bank.getInt(0) != MAGIC || bank.getInt(4) != VERSION)
+            { throw new IOException("Not a version " + VERSION + " compressed sample bank: " + bankFile); }
+        int count = bank.getInt(8);
+        int table = bank.getInt(12);
+
+        int maxKey = 0;
+        List<DecodeKey> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            int entry = table + i * ENTRY_SIZE;
+            int keyNum = bank.getInt(entry);
+            if (bank.getShort(entry + 8) != SampleBank.CHANNELS || bank.getShort(entry + 10) != 16
+                || bank.getInt(entry + 12) != BLOCK_FRAMES)
+                { throw new IOException("Key " + keyNum + " is not coded as 16-bit stereo in " + BLOCK_FRAMES + "-frame blocks"); }
+            int offset = (int) bank.getLong(entry + 16);
+            int length = (int) bank.getLong(entry + 24);
+            ByteBuffer data = bank.duplicate().position(offset).limit(offset + length).slice();
+            tasks.add(new DecodeKey(keyNum, bank.getInt(entry + 4), data));
+            maxKey = Math.max(maxKey, keyNum);
+        }
+
+        pool.invoke(new RecursiveAction() {
+            protected void compute()
+            {
+                invokeAll(tasks);
+            }
+        });
+        this.samples = new Sample [maxKey + 1];
+        for (DecodeKey task : tasks)
+        {
+            if (task.error != null)
+                { throw new IOException("Key " + task.keyNum + " is corrupt in " + bankFile, task.error); }
+            this.samples[task.keyNum] = task.sample;
+        }
+    }
+
+    public Sample getSample(int keyNum)
+    {
+        if (keyNum < 1 || keyNum >= this.samples.length)
+            { return null; }
+        return this.samples[keyNum];
+    }
+
+    // Decodes one key into a freshly allocated PCM buffer
+    private static class DecodeKey extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        final int keyNum;
+        final int frames;
+        final ByteBuffer data;
+        Sample sample;
+        RuntimeException error;
+
+        DecodeKey(int keyNum, int frames, ByteBuffer data)
+        {
+            this.keyNum = keyNum;
+            this.frames = frames;
+            this.data = data;
+        }
+
+        protected void compute()
+        {
+            try { this.sample = SampleConditioner.condition(decode(this.data, this.frames)); }
+            catch (RuntimeException e) { this.error = e; } // Reported for the right key by the loader
+        }
+    }
+
+    // Decodes a key's bitstream into interleaved 16-bit stereo PCM
+    static Sample decode(ByteBuffer data, int frames)
+    {
+        short [] pcm = new short [frames * SampleBank.CHANNELS];
+        int [] a = new int [BLOCK_FRAMES];
+        int [] b = new int [BLOCK_FRAMES];
+        BitReader in = new BitReader(data);
+        for (int start = 0; start < frames; start += BLOCK_FRAMES)
+        {
+            int n = Math.min(BLOCK_FRAMES, frames - start);
+            int mode = in.read(2);
+            decodeChannel(in, a, n);
+            decodeChannel(in, b, n);
+            in.alignToByte();
+
+            int p = start * SampleBank.CHANNELS;
+            for (int i = 0; i < n; i++)
+            {
+                int left;
+                int right;
+                switch (mode)
+                {
+                    case LEFT_RIGHT: left = a[i]; right = b[i]; break;
+                    case LEFT_SIDE: left = a[i]; right = a[i] - b[i]; break;
+                    case RIGHT_SIDE: right = a[i]; left = a[i] + b[i]; break;
+                    default:
+                        int mid = (a[i] << 1) | (b[i] & 1);
+                        left = (mid + b[i]) >> 1;
+                        right = (mid - b[i]) >> 1;
+                }
+                pcm[p++] = (short) left;
+                pcm[p++] = (short) right;
+            }
+        }
+        return new Sample(ShortBuffer.wrap(pcm));
+    }
+
+    // Reads one channel of a block: predictor order, warm-up samples, then Rice coded residuals
+    private static void decodeChannel(BitReader in, int [] x, int n)
+    {
+        int order = in.read(3);
+        for (int i = 0; i < order; i++)
+            { x[i] = (in.read(WARMUP_BITS) << (32 - WARMUP_BITS)) >> (32 - WARMUP_BITS); }
+        for (int p = 0; p < n; p += PARTITION)
+        {
+            int k = in.read(5);
+            int end = Math.min(p + PARTITION, n);
+            int i = Math.max(p, order);
+            // One loop per order keeps the predictor out of the per-sample path
+            switch (order)
+            {
+                case 0:
+                    for (; i < end; i++)
+                        { x[i] = in.readRice(k); }
+                    break;
+                case 1:
+                    for (; i < end; i++)
+                        { x[i] = in.readRice(k) + x[i - 1]; }
+                    break;
+                case 2:
+                    for (; i < end; i++)
+                        { x[i] = in.readRice(k) + 2 * x[i - 1] - x[i - 2]; }
+                    break;
+                case 3:
+                    for (; i < end; i++)
+                        { x[i] = in.readRice(k) + 3 * (x[i - 1] - x[i - 2]) + x[i - 3]; }
+                    break;
+                default:
+                    for (; i < end; i++)
+                        { x[i] = in.readRice(k) + 4 * (x[i - 1] + x[i - 3]) - 6 * x[i - 2] - x[i - 4]; }
+            }
+        }
+    }
+
+    // Fixed polynomial prediction of x[i] from the order samples before it
+    private static int predict(int [] x, int i, int order)
+    {
+        switch (order)
+        {
+            case 0: return 0;
+            case 1: return x[i - 1];
+            case 2: return 2 * x[i - 1] - x[i - 2];
+            case 3: return 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+            default: return 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+        }
+    }
+
+    // Encodes one key's PCM as a bitstream, followed by the read-ahead padding
+    static byte [] encode(Sample sample)
+    {
+        ShortBuffer pcm = sample.getPcm();
+        int frames = sample.getFrames();
+        int [][] channels = new int [4][BLOCK_FRAMES]; // Left, right, mid, side
+        int [] residual = new int [BLOCK_FRAMES];
+        int [] orders = new int [4];
+        long [] costs = new long [4];
+        BitWriter out = new BitWriter(sample.getByteSize() / 2);
+
+        for (int start = 0; start < frames; start += BLOCK_FRAMES)
+        {
+            int n = Math.min(BLOCK_FRAMES, frames - start);
+            for (int i = 0; i < n; i++)
+            {
+                int left = pcm.get((start + i) * SampleBank.CHANNELS);
+                int right = pcm.get((start + i) * SampleBank.CHANNELS + 1);
+                channels[0][i] = left;
+                channels[1][i] = right;
+                channels[2][i] = (left + right) >> 1;
+                channels[3][i] = left - right;
+            }
+
+            // Pick each channel's best predictor by total residual size, then the cheapest pair of channels
+            for (int c = 0; c < 4; c++)
+            {
+                costs[c] = Long.MAX_VALUE;
+                for (int order = 0; order <= Math.min(MAX_ORDER, n); order++)
+                {
+                    long cost = 0;
+                    for (int i = order; i < n; i++)
+                        { cost += Math.abs(channels[c][i] - predict(channels[c], i, order)); }
+                    if (cost < costs[c])
+                    {
+                        costs[c] = cost;
+                        orders[c] = order;
+                    }
+                }
+            }
+            long [] pairCosts = { costs[0] + costs[1], costs[0] + costs[3], costs[1] + costs[3], costs[2] + costs[3] };
+            int mode = 0;
+            for (int m = 1; m < pairCosts.length; m++)
+            {
+                if (pairCosts[m] < pairCosts[mode])
+                    { mode = m; }
+            }
+            int first = mode == LEFT_RIGHT || mode == LEFT_SIDE ? 0 : mode == RIGHT_SIDE ? 1 : 2;
+            int second = mode == LEFT_RIGHT ? 1 : 3;
+
+            out.write(mode, 2);
+            encodeChannel(out, channels[first], orders[first], n, residual);
+            encodeChannel(out, channels[second], orders[second], n, residual);
+            out.alignToByte();
+        }
+        for (int i = 0; i < PADDING; i++)
+            { out.write(0, 8); }
+        return out.toByteArray();
+    }
+
+    private static void encodeChannel(BitWriter out, int [] x, int order, int n, int [] residual)
+    {
+        out.write(order, 3);
+        for (int i = 0; i < order; i++)
+            { out.write(x[i], WARMUP_BITS); }
+        for (int i = order; i < n; i++)
+            { residual[i] = x[i] - predict(x, i, order); }
+        for (int p = 0; p < n; p += PARTITION)
+        {
+            int from = Math.max(p, order);
+            int end = Math.min(p + PARTITION, n);
+            int k = riceParameter(residual, from, end);
+            out.write(k, 5);
+            for (int i = from; i < end; i++)
+                { out.writeRice(residual[i], k); }
+        }
+    }
+
+    // Finds the Rice parameter that codes a run of residuals in the fewest bits
+    private static int riceParameter(int [] residual, int from, int end)
+    {
+        long best = Long.MAX_VALUE;
+        for (int k = 0; k < 31; k++)
+        {
+            long bits = (long) (end - from) * (k + 1);
+            for (int i = from; i < end; i++)
+                { bits += zigzag(residual[i]) >>> k; }
+            if (bits >= best)
+                { return k - 1; }
+            best = bits;
+        }
+        return 30;
+    }
+
+    // Maps signed residuals to unsigned: 0, -1, 1, -2, 2 ... become 0, 1, 2, 3, 4 ...
+    private static int zigzag(int v)
+    {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    // Compresses <sampleDir>/<key name>.wav for every key into a single bank file, encoding keys in parallel;
+    // keys without a file are left out
+    public static void pack(File sampleDir, File out) throws IOException
+    {
+        Key [] keys = Keyboard.createKeys();
+        Sample [] decoded = new Sample [keys.length];
+        byte [][] coded = new byte [keys.length][];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++)
+        {
+            File wav = new File(sampleDir, keys[i].getName() + ".wav");
+            try {
+                decoded[i] = SampleBank.decode(wav);
+                count++;
+            }
+            catch (Exception e) { System.out.println("Skipping " + wav + ": " + e.getMessage()); }
+        }
+        IntStream.range(0, keys.length).parallel()
+            .filter(i -> decoded[i] != null)
+            .forEach(i -> coded[i] = encode(decoded[i]));
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + count * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(HEADER_SIZE);
+        long offset = header.capacity();
+        long raw = 0;
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (coded[i] == null)
+                { continue; }
+            header.putInt(keys[i].getKeyNum()).putInt(decoded[i].getFrames());
+            header.putShort((short) SampleBank.CHANNELS).putShort((short) 16).putInt(BLOCK_FRAMES);
+            header.putLong(offset).putLong(coded[i].length);
+            offset += coded[i].length;
+            raw += decoded[i].getByteSize();
+        }
+        header.flip();
+
+        try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (header.hasRemaining())
+                { channel.write(header); }
+            for (byte [] data : coded)
+            {
+                if (data == null)
+                    { continue; }
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining())
+                    { channel.write(buffer); }
+            }
+        }
+        System.out.printf("Packed %d keys: %d bytes of PCM in %d bytes (%.1f%%)%n", count, raw, offset, 100.0 * offset / raw);
+    }
+
+    // Writes bits MSB first into a growing byte array
+    private static class BitWriter
+    {
+        byte [] bytes;
+        int size;
+        long bits; // Pending bits, fewer than 8 between calls
+        int count;
+
+        BitWriter(int capacity)
+        {
+            this.bytes = new byte [Math.max(capacity, 16)];
+        }
+
+        // Writes the low n bits of value, n at most 32
+        void write(int value, int n)
+        {
+            this.bits = (this.bits << n) | (value & ((1L << n) - 1));
+            this.count += n;
+            while (this.count >= 8)
+            {
+                if (this.size == this.bytes.length)
+                    { this.bytes = Arrays.copyOf(this.bytes, this.size * 2); }
+                this.count -= 8;
+                this.bytes[this.size++] = (byte) (this.bits >>> this.count);
+            }
+        }
+
+        // Writes a residual as a unary quotient, a stop bit and k remainder bits
+        void writeRice(int v, int k)
+        {
+            int u = zigzag(v);
+            int q = u >>> k;
+            for (; q >= 32; q -= 32)
+                { write(0, 32); }
+            write(1, q + 1);
+            if (k > 0)
+                { write(u, k); }
+        }
+
+        void alignToByte()
+        {
+            if (this.count > 0)
+                { write(0, 8 - this.count); }
+        }
+
+        byte [] toByteArray()
+        {
+            return Arrays.copyOf(this.bytes, this.size);
+        }
+    }
+
+    // Reads bits MSB first, keeping up to 64 of them left-aligned in a cache
+    private static class BitReader
+    {
+        final ByteBuffer data;
+        int position; // Next byte to load into the cache
+        long cache;
+        int cached; // Valid bits at the top of the cache
+
+        BitReader(ByteBuffer data)
+        {
+            this.data = data;
+        }
+
+        private void refill()
+        {
+            if (this.cached <= 32 && this.position + 4 <= this.data.limit())
+            {
+                this.cache |= (this.data.getInt(this.position) & 0xFFFFFFFFL) << (32 - this.cached);
+                this.position += 4;
+                this.cached += 32;
+            }
+            while (this.cached <= 56 && this.position < this.data.limit())
+            {
+                this.cache |= (this.data.get(this.position++) & 0xFFL) << (56 - this.cached);
+                this.cached += 8;
+            }
+            if (this.cached == 0)
+                { throw new BufferUnderflowException(); }
+        }
+
+        // Reads n bits, n from 1 to 32, as an unsigned value
+        int read(int n)
+        {
+            if (this.cached < n)
+                { refill(); }
+            int value = (int) (this.cache >>> (64 - n));
+            this.cache <<= n;
+            this.cached -= n;
+            return value;
+        }
+
+        int readRice(int k)
+        {
+            // Fast path: the whole code is already in the cache
+            if (this.cached < 32)
+                { refill(); }
+            int zeros = Long.numberOfLeadingZeros(this.cache);
+            if (zeros + 1 + k <= this.cached)
+            {
+                long rest = this.cache << zeros << 1;
+                int u = k == 0 ? zeros : (zeros << k) | (int) (rest >>> (64 - k));
+                this.cache = rest << k;
+                this.cached -= zeros + 1 + k;
+                return (u >>> 1) ^ -(u & 1);
+            }
+
+            int q = 0;
+            while (true)
+            {
+                if (this.cached == 0)
+                    { refill(); }
+                zeros = Long.numberOfLeadingZeros(this.cache);
+                if (zeros < this.cached)
+                {
+                    q += zeros;
+                    this.cache = zeros == 63 ? 0 : this.cache << (zeros + 1);
+                    this.cached -= zeros + 1;
+                    break;
+                }
+                q += this.cached;
+                this.cache = 0;
+                this.cached = 0;
+            }
+            int u = k == 0 ? q : (q << k) | read(k);
+            return (u >>> 1) ^ -(u & 1);
+        }
+
+        void alignToByte()
+        {
+            int skip = this.cached & 7;
+            this.cache <<= skip;
+            this.cached -= skip;
+        }
+    }
+
+    public static void main(String [] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.out.println("Usage: java CompressedSampleBank <sample directory> <bank file>");
+            return;
+        }
+        pack(new File(args[0]), new File(args[1]));
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * One stage of the master-bus EffectsChain
+ * Effects work in place on the engine's float mix bus and run on the render thread, so process must not allocate,
+ * block or take locks; parameter setters may be called from any thread
+ */
+
+public interface Effect {
+    // Returns the name the chain reports and looks the effect up by
+    String getName();
+
+    // Processes frames of a stereo block in place, starting at offset
+    void process(float [] left, float [] right, int offset, int frames);
+
+    // Clears delay lines and envelopes so the effect starts again from silence
+    void reset();
+
+    // Returns how many frames the effect delays its input by
+    default int getLatency()
+    {
+        return 0;
+    }
+}
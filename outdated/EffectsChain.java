@@ -0,0 +1,257 @@
+/*
+ * Master-bus effects run by the AudioEngine on every mixed block, after the voices and before 16-bit conversion
+ * Stages can be bypassed and reordered from any thread while audio plays; changes never cut the signal abruptly:
+ *      bypassing crossfades a stage's output to its input over one block, and the stage then costs nothing
+ *      a stage with latency (the limiter's look-ahead) keeps running while bypassed and is faded against its input
+ *      delayed by the same amount, so switching it never shifts the signal in time
+ *      a reorder first fades every stage that changes position out to a pass-through, moves them while they are
+ *      transparent (so moving them changes nothing audible), then fades them back in on the next block
+ * The render thread works only on the chain's preallocated arrays; the order is published as a whole new array,
+ * the same way the engine publishes its input queues
+ * Time spent in each stage per block is recorded in a LatencyHistogram, also published over JMX
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.*;
+
+public class EffectsChain {
+    // An effect with its bypass state and timing
+    public static class Stage
+    {
+        protected final Effect effect;
+        protected final LatencyHistogram cpu;
+        protected volatile boolean bypassed;
+        protected float mix = 1f; // Render thread only: 1 fully in, 0 fully bypassed
+        protected final float [] delayLeft; // Input delayed by the effect's latency, null if it has none
+        protected final float [] delayRight;
+        protected int delayPos;
+
+        Stage(Effect effect)
+        {
+            this.effect = effect;
+            this.cpu = new LatencyHistogram("effect." + effect.getName());
+            int latency = effect.getLatency();
+            this.delayLeft = latency > 0 ? new float [latency] : null;
+            this.delayRight = latency > 0 ? new float [latency] : null;
+        }
+
+        // Swaps a block for the one latency frames earlier, in place
+        void delay(float [] left, float [] right, int frames)
+        {
+            int pos = this.delayPos;
+            for (int f = 0; f < frames; f++)
+            {
+                float l = this.delayLeft[pos];
+                float r = this.delayRight[pos];
+                this.delayLeft[pos] = left[f];
+                this.delayRight[pos] = right[f];
+                left[f] = l;
+                right[f] = r;
+                if (++pos == this.delayLeft.length)
+                    { pos = 0; }
+            }
+            this.delayPos = pos;
+        }
+
+        public Effect getEffect()
+        {
+            return this.effect;
+        }
+
+        public boolean isBypassed()
+        {
+            return this.bypassed;
+        }
+
+        // Nanoseconds spent processing each block
+        public LatencyHistogram getCpuTime()
+        {
+            return this.cpu;
+        }
+    }
+
+    protected final int blockFrames;
+    protected volatile Stage [] order; // Order requested by the control side
+    protected Stage [] running; // Order the render thread is processing in; catches up with order between blocks
+    protected final float [] dryLeft; // Input of a stage that is fading in or out
+    protected final float [] dryRight;
+
+    public EffectsChain(Effect... effects)
+    {
+        this(AudioEngine.BLOCK_FRAMES, effects);
+    }
+
+    public EffectsChain(int blockFrames, Effect... effects)
+    {
+        this.blockFrames = blockFrames;
+        this.dryLeft = new float [blockFrames];
+        this.dryRight = new float [blockFrames];
+        Stage [] stages = new Stage [effects.length];
+        for (int i = 0; i < effects.length; i++)
+            { stages[i] = new Stage(effects[i]); }
+        this.order = stages;
+        this.running = stages;
+    }
+
+    // EQ (flat until a band is set), a quiet room reverb, then the limiter last so nothing after it can clip
+    public static EffectsChain createDefault()
+    {
+        return new EffectsChain(new Equalizer(), new Reverb(), new Limiter());
+    }
+
+    // Returns the effect with the given name, or null
+    public Effect getEffect(String name)
+    {
+        Stage stage = find(name);
+        return stage == null ? null : stage.effect;
+    }
+
+    public Stage getStage(String name)
+    {
+        return find(name);
+    }
+
+    private Stage find(String name)
+    {
+        for (Stage stage : this.order)
+        {
+            if (stage.effect.getName().equals(name))
+                { return stage; }
+        }
+        return null;
+    }
+
+    // Bypasses or re-enables a stage; a re-enabled stage starts again from silence unless it has latency
+    public void setBypassed(String name, boolean bypassed)
+    {
+        Stage stage = find(name);
+        if (stage == null)
+            { throw new IllegalArgumentException("No effect named " + name); }
+        stage.bypassed = bypassed;
+    }
+
+    // Moves a stage to a new position in the chain
+    public synchronized void move(String name, int position)
+    {
+        Stage stage = find(name);
+        if (stage == null)
+            { throw new IllegalArgumentException("No effect named " + name); }
+        List<Stage> stages = new ArrayList<>(Arrays.asList(this.order));
+        stages.remove(stage);
+        stages.add(Math.max(0, Math.min(position, stages.size())), stage);
+        this.order = stages.toArray(new Stage [0]);
+    }
+
+    // Returns the effect names in the requested order
+    public List<String> getOrder()
+    {
+        List<String> names = new ArrayList<>();
+        for (Stage stage : this.order)
+            { names.add(stage.effect.getName()); }
+        return names;
+    }
+
+    // Runs the chain over a block in place
+    public void process(float [] left, float [] right, int offset, int frames)
+    {
+        for (int done = 0; done < frames; )
+        {
+            int n = Math.min(frames - done, this.blockFrames);
+            processBlock(left, right, offset + done, n);
+            done += n;
+        }
+    }
+
+    private void processBlock(float [] left, float [] right, int offset, int frames)
+    {
+        Stage [] target = this.order;
+        boolean reordering = target != this.running;
+        boolean settled = true; // Every moving stage is transparent by the end of this block
+
+        for (int i = 0; i < this.running.length; i++)
+        {
+            Stage stage = this.running[i];
+            boolean moving = reordering && (i >= target.length || target[i] != stage);
+            float to = stage.bypassed || moving ? 0f : 1f;
+            float from = stage.mix;
+            boolean delayed = stage.delayLeft != null;
+            if (from == 0f && to == 0f && !delayed)
+                { continue; }
+            if (from == 0f && !delayed)
+                { stage.effect.reset(); }
+
+            long start = System.nanoTime();
+            if (from == 1f && to == 1f && !delayed)
+                { stage.effect.process(left, right, offset, frames); }
+            else
+            {
+                System.arraycopy(left, offset, this.dryLeft, 0, frames);
+                System.arraycopy(right, offset, this.dryRight, 0, frames);
+                if (delayed)
+                    { stage.delay(this.dryLeft, this.dryRight, frames); }
+                stage.effect.process(left, right, offset, frames);
+                float step = (to - from) / frames;
+                for (int f = 0; f < frames; f++)
+                {
+                    float m = from + step * (f + 1);
+                    left[offset + f] = this.dryLeft[f] + (left[offset + f] - this.dryLeft[f]) * m;
+                    right[offset + f] = this.dryRight[f] + (right[offset + f] - this.dryRight[f]) * m;
+                }
+                stage.mix = to;
+            }
+            stage.cpu.record(System.nanoTime() - start);
+            if (moving && stage.mix != 0f)
+                { settled = false; }
+        }
+        if (reordering && settled)
+            { this.running = target; }
+    }
+
+    // Clears every stage's state, e.g. before reusing the chain for a new render
+    public void reset()
+    {
+        for (Stage stage : this.order)
+        {
+            stage.effect.reset();
+            if (stage.delayLeft != null)
+            {
+                Arrays.fill(stage.delayLeft, 0f);
+                Arrays.fill(stage.delayRight, 0f);
+            }
+        }
+    }
+
+    // Publishes each stage's CPU time under Keyboard:type=EffectCpu, replacing every stage of an earlier chain's
+    public void register()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (ObjectName stale : server.queryNames(new ObjectName("Keyboard:type=EffectCpu,*"), null))
+                { server.unregisterMBean(stale); }
+        }
+        catch (JMException e) { System.out.println("Error: Could not unregister effect metrics (" + e.getMessage() + ")"); }
+        for (Stage stage : this.order)
+        {
+            try {
+                server.registerMBean(stage.cpu, new ObjectName("Keyboard:type=EffectCpu,stage=" + stage.effect.getName()));
+            }
+            catch (JMException e) { System.out.println("Error: Could not register effect metrics (" + e.getMessage() + ")"); }
+        }
+    }
+
+    // One line per stage: order, bypass state and CPU time per block, also as a share of the block's duration
+    public String report()
+    {
+        double blockMicros = this.blockFrames * 1e6 / SampleBank.SAMPLE_RATE;
+        StringBuilder text = new StringBuilder();
+        for (Stage stage : this.order)
+        {
+            LatencyHistogram cpu = stage.cpu;
+            text.append(String.format("%-10s %-8s mean %7.1f us  p99 %7.1f us  max %7.1f us  (%.2f%% of a block)%n",
+                                      stage.effect.getName(), stage.bypassed ? "bypass" : "on", cpu.getMeanMicros(),
+                                      cpu.getP99Micros(), cpu.getMaxMicros(), 100 * cpu.getMeanMicros() / blockMicros));
+        }
+        return text.toString();
+    }
+}
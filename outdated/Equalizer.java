@@ -0,0 +1,154 @@
+/*
+ * Parametric equalizer: a fixed set of biquad bands (low shelf, peaks, high shelf) run one after another
+ * Coefficients follow the RBJ audio EQ cookbook and are worked out on the thread that changes a band, then published
+ * as a new array, so the render thread only ever reads a complete set; bands at 0 dB are skipped entirely
+ */
+
+import java.util.Arrays;
+
+public class Equalizer implements Effect {
+    public enum Shape { LOW_SHELF, PEAK, HIGH_SHELF }
+
+    protected final Shape [] shapes;
+    protected final double [] frequencies;
+    protected final double [] gains; // dB
+    protected final double [] qs;
+    protected volatile float [][] coefficients; // Per band: b0, b1, b2, a1, a2 normalized by a0, or null when flat
+    protected final float [][] state; // Per band: left z1, z2, right z1, z2 (transposed direct form II)
+
+    // Creates a flat four-band EQ: low shelf at 100 Hz, peaks at 500 Hz and 2.5 kHz, high shelf at 8 kHz
+    public Equalizer()
+    {
+        this(new Shape [] { Shape.LOW_SHELF, Shape.PEAK, Shape.PEAK, Shape.HIGH_SHELF },
+             new double [] { 100, 500, 2500, 8000 });
+    }
+
+    public Equalizer(Shape [] shapes, double [] frequencies)
+    {
+        if (shapes.length != frequencies.length)
+            { throw new IllegalArgumentException("Every band needs a shape and a frequency"); }
+        this.shapes = shapes.clone();
+        this.frequencies = frequencies.clone();
+        this.gains = new double [shapes.length];
+        this.qs = new double [shapes.length];
+        Arrays.fill(this.qs, 0.7071);
+        this.coefficients = new float [shapes.length][];
+        this.state = new float [shapes.length][4];
+    }
+
+    public String getName()
+    {
+        return "eq";
+    }
+
+    public int getBandCount()
+    {
+        return this.shapes.length;
+    }
+
+    // Sets a band's centre (or corner) frequency in Hz, gain in dB and Q; takes effect on the next block
+    public synchronized void setBand(int band, double frequency, double gainDb, double q)
+    {
+        if (frequency <= 0 || frequency >= SampleBank.SAMPLE_RATE / 2.0 || q <= 0)
+            { throw new IllegalArgumentException("Band frequency must be below Nyquist and Q positive"); }
+        this.frequencies[band] = frequency;
+        this.gains[band] = gainDb;
+        this.qs[band] = q;
+        float [][] next = this.coefficients.clone();
+        next[band] = gainDb == 0 ? null : design(this.shapes[band], frequency, gainDb, q);
+        this.coefficients = next;
+    }
+
+    public synchronized double getGain(int band)
+    {
+        return this.gains[band];
+    }
+
+    public synchronized double getFrequency(int band)
+    {
+        return this.frequencies[band];
+    }
+
+    // RBJ cookbook biquad for one band
+    private static float [] design(Shape shape, double frequency, double gainDb, double q)
+    {
+        double a = Math.pow(10, gainDb / 40);
+        double w = 2 * Math.PI * frequency / SampleBank.SAMPLE_RATE;
+        double cos = Math.cos(w);
+        double alpha = Math.sin(w) / (2 * q);
+        double b0, b1, b2, a0, a1, a2;
+        switch (shape)
+        {
+            case LOW_SHELF:
+            {
+                double s = 2 * Math.sqrt(a) * alpha;
+                b0 = a * ((a + 1) - (a - 1) * cos + s);
+                b1 = 2 * a * ((a - 1) - (a + 1) * cos);
+                b2 = a * ((a + 1) - (a - 1) * cos - s);
+                a0 = (a + 1) + (a - 1) * cos + s;
+                a1 = -2 * ((a - 1) + (a + 1) * cos);
+                a2 = (a + 1) + (a - 1) * cos - s;
+                break;
+            }
+            case HIGH_SHELF:
+            {
+                double s = 2 * Math.sqrt(a) * alpha;
+                b0 = a * ((a + 1) + (a - 1) * cos + s);
+                b1 = -2 * a * ((a - 1) + (a + 1) * cos);
+                b2 = a * ((a + 1) + (a - 1) * cos - s);
+                a0 = (a + 1) - (a - 1) * cos + s;
+                a1 = 2 * ((a - 1) - (a + 1) * cos);
+                a2 = (a + 1) - (a - 1) * cos - s;
+                break;
+            }
+            default:
+            {
+                b0 = 1 + alpha * a;
+                b1 = -2 * cos;
+                b2 = 1 - alpha * a;
+                a0 = 1 + alpha / a;
+                a1 = -2 * cos;
+                a2 = 1 - alpha / a;
+            }
+        }
+        return new float [] { (float) (b0 / a0), (float) (b1 / a0), (float) (b2 / a0), (float) (a1 / a0), (float) (a2 / a0) };
+    }
+
+    public void process(float [] left, float [] right, int offset, int frames)
+    {
+        float [][] bands = this.coefficients;
+        for (int band = 0; band < bands.length; band++)
+        {
+            float [] c = bands[band];
+            if (c == null)
+                { continue; }
+            float [] z = this.state[band];
+            filter(c, z, 0, left, offset, frames);
+            filter(c, z, 2, right, offset, frames);
+        }
+    }
+
+    // Runs one channel through one band, keeping the filter state in locals for the loop
+    private static void filter(float [] c, float [] z, int channel, float [] x, int offset, int frames)
+    {
+        float b0 = c[0], b1 = c[1], b2 = c[2], a1 = c[3], a2 = c[4];
+        float z1 = z[channel], z2 = z[channel + 1];
+        for (int i = offset; i < offset + frames; i++)
+        {
+            float in = x[i];
+            float out = b0 * in + z1;
+            z1 = b1 * in - a1 * out + z2;
+            z2 = b2 * in - a2 * out;
+            x[i] = out;
+        }
+        // Let a decayed filter settle to exactly zero rather than crawl through denormals
+        z[channel] = Math.abs(z1) < 1e-20f ? 0f : z1;
+        z[channel + 1] = Math.abs(z2) < 1e-20f ? 0f : z2;
+    }
+
+    public void reset()
+    {
+        for (float [] z : this.state)
+            { Arrays.fill(z, 0f); }
+    }
+}
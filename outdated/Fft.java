@@ -0,0 +1,97 @@
+/*
+ * In-place radix-2 complex FFT with its twiddle and bit-reversal tables built once per size
+ * An Fft holds no working buffers, so one instance can be shared by every thread; callers own the arrays they
+ * transform and reuse them from window to window
+ * Audio is real, so two windows go through one complex transform (one as the real part, one as the imaginary)
+ * and are separated afterwards by magnitudes, halving the work per window
+ */
+
+public class Fft {
+    protected final int size;
+    protected final float [] cos; // cos(2 pi k / size) for k < size / 2
+    protected final float [] sin;
+    protected final int [] reversed; // Bit-reversed index of each position
+
+    public Fft(int size)
+    {
+        if (size < 2 || Integer.bitCount(size) != 1)
+            { throw new IllegalArgumentException("FFT size must be a power of two"); }
+        this.size = size;
+        this.cos = new float [size / 2];
+        this.sin = new float [size / 2];
+        for (int k = 0; k < size / 2; k++)
+        {
+            this.cos[k] = (float) Math.cos(2 * Math.PI * k / size);
+            this.sin[k] = (float) Math.sin(2 * Math.PI * k / size);
+        }
+        int bits = Integer.numberOfTrailingZeros(size);
+        this.reversed = new int [size];
+        for (int i = 0; i < size; i++)
+            { this.reversed[i] = Integer.reverse(i) >>> (32 - bits); }
+    }
+
+    public int getSize()
+    {
+        return this.size;
+    }
+
+    // Forward transform of re + i im, in place
+    public void transform(float [] re, float [] im)
+    {
+        int n = this.size;
+        for (int i = 0; i < n; i++)
+        {
+            int j = this.reversed[i];
+            if (j > i)
+            {
+                float t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+        for (int half = 1; half < n; half <<= 1)
+        {
+            int stride = n / (half << 1);
+            for (int start = 0; start < n; start += half << 1)
+            {
+                for (int k = 0; k < half; k++)
+                {
+                    float wr = this.cos[k * stride];
+                    float wi = -this.sin[k * stride];
+                    int a = start + k;
+                    int b = a + half;
+                    float tr = re[b] * wr - im[b] * wi;
+                    float ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    // Splits the transform of two real signals packed as re and im into their magnitude spectra, bins 0 to size / 2
+    public void magnitudes(float [] re, float [] im, float [] first, float [] second)
+    {
+        int n = this.size;
+        for (int k = 0; k <= n / 2; k++)
+        {
+            int m = (n - k) & (n - 1);
+            float ar = (re[k] + re[m]) * 0.5f; // First signal: (Z[k] + conj Z[n - k]) / 2
+            float ai = (im[k] - im[m]) * 0.5f;
+            float br = (im[k] + im[m]) * 0.5f; // Second signal: (Z[k] - conj Z[n - k]) / 2i
+            float bi = (re[m] - re[k]) * 0.5f;
+            first[k] = (float) Math.sqrt(ar * ar + ai * ai);
+            second[k] = (float) Math.sqrt(br * br + bi * bi);
+        }
+    }
+
+    // Periodic Hann window of the given size
+    public static float [] hann(int size)
+    {
+        float [] window = new float [size];
+        for (int i = 0; i < size; i++)
+            { window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / size)); }
+        return window;
+    }
+}
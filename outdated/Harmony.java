@@ -0,0 +1,228 @@
+/*
+ * Chord and scale engine built on KeySet
+ * Scales and chords are 12-bit interval masks (bit n = n half steps above the root) rotated onto a root
+ * Recognition folds held keys to a pitch-class mask and tries each present pitch class as the root,
+ * looking the rotated mask up in a table built once, so no strings are compared
+ */
+
+public class Harmony {
+    protected static final String [] PITCH_NAMES = { "C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B" };
+
+    public enum ScaleType {
+        MAJOR("Major", 0, 2, 4, 5, 7, 9, 11),
+        MINOR("Minor", 0, 2, 3, 5, 7, 8, 10),
+        HARMONIC_MINOR("Harmonic minor", 0, 2, 3, 5, 7, 8, 11),
+        MELODIC_MINOR("Melodic minor", 0, 2, 3, 5, 7, 9, 11),
+        MAJOR_PENTATONIC("Major pentatonic", 0, 2, 4, 7, 9),
+        MINOR_PENTATONIC("Minor pentatonic", 0, 3, 5, 7, 10),
+        CHROMATIC("Chromatic", 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11);
+
+        protected final String label;
+        protected final int mask;
+
+        ScaleType(String label, int ... halfSteps)
+        {
+            this.label = label;
+            this.mask = toMask(halfSteps);
+        }
+
+        public int getMask()
+        {
+            return this.mask;
+        }
+
+        public String toString()
+        {
+            return this.label;
+        }
+    }
+
+    public enum ChordType {
+        MAJOR("major", 0, 4, 7),
+        MINOR("minor", 0, 3, 7),
+        DIMINISHED("diminished", 0, 3, 6),
+        AUGMENTED("augmented", 0, 4, 8),
+        SUS2("sus2", 0, 2, 7),
+        SUS4("sus4", 0, 5, 7),
+        DOMINANT_7("7", 0, 4, 7, 10),
+        MAJOR_7("major 7", 0, 4, 7, 11),
+        MINOR_7("minor 7", 0, 3, 7, 10),
+        MINOR_MAJOR_7("minor-major 7", 0, 3, 7, 11),
+        HALF_DIMINISHED_7("half-diminished 7", 0, 3, 6, 10),
+        DIMINISHED_7("diminished 7", 0, 3, 6, 9);
+
+        protected final String label;
+        protected final int [] halfSteps;
+        protected final int mask;
+
+        ChordType(String label, int ... halfSteps)
+        {
+            this.label = label;
+            this.halfSteps = halfSteps;
+            this.mask = toMask(halfSteps);
+        }
+
+        public int getMask()
+        {
+            return this.mask;
+        }
+
+        // Returns the number of chord tones
+        public int size()
+        {
+            return this.halfSteps.length;
+        }
+
+        public String toString()
+        {
+            return this.label;
+        }
+    }
+
+    // A recognized chord: root pitch class, type and which chord tone is in the bass
+    public static final class Chord {
+        protected final int root;
+        protected final ChordType type;
+        protected final int inversion; // 0 = root position, 1 = first inversion, ...
+        protected final String label;
+
+        Chord(int root, ChordType type, int inversion)
+        {
+            this.root = root;
+            this.type = type;
+            this.inversion = inversion;
+            String name = PITCH_NAMES[root] + " " + type;
+            this.label = inversion == 0 ? name : name + " (" + ordinal(inversion) + " inversion)";
+        }
+
+        public int getRoot()
+        {
+            return this.root;
+        }
+
+        public ChordType getType()
+        {
+            return this.type;
+        }
+
+        public int getInversion()
+        {
+            return this.inversion;
+        }
+
+        public String toString()
+        {
+            return this.label;
+        }
+
+        private static String ordinal(int n)
+        {
+            return n == 1 ? "1st" : n == 2 ? "2nd" : n == 3 ? "3rd" : n + "th";
+        }
+    }
+
+    // Lookup tables, built on first use so the enums above are fully initialized first
+    private static final class Tables {
+        static final ChordType [] TYPE_BY_MASK = new ChordType [1 << 12]; // Root-relative mask to chord type
+        static final Chord [][][] CHORDS = new Chord [12][ChordType.values().length][4]; // Shared results
+
+        static
+        {
+            for (ChordType type : ChordType.values())
+            {
+                TYPE_BY_MASK[type.mask] = type;
+                for (int root = 0; root < 12; root++)
+                {
+                    for (int inv = 0; inv < type.size(); inv++)
+                        { CHORDS[root][type.ordinal()][inv] = new Chord(root, type, inv); }
+                }
+            }
+        }
+    }
+
+    // Builds a 12-bit mask from half-step offsets
+    private static int toMask(int [] halfSteps)
+    {
+        int mask = 0;
+        for (int h : halfSteps)
+            { mask |= 1 << h; }
+        return mask;
+    }
+
+    // Rotates a 12-bit pitch-class mask down by n so pitch class n becomes bit 0
+    public static int rotate(int mask, int n)
+    {
+        return ((mask >>> n) | (mask << (12 - n))) & 0xFFF;
+    }
+
+    // Returns the keys of a scale from root up through the given number of octaves (ending on the root)
+    public static KeySet scale(int rootKeyNum, ScaleType type, int octaves)
+    {
+        int mask = rotate(type.mask, (12 - KeySet.pitchClass(rootKeyNum)) % 12);
+        return KeySet.ofPitchClasses(mask).intersect(KeySet.range(rootKeyNum, rootKeyNum + 12 * octaves));
+    }
+
+    // Returns the keys of a chord built up from root, raising the lowest tones an octave for each inversion
+    public static KeySet chord(int rootKeyNum, ChordType type, int inversion)
+    {
+        KeySet set = KeySet.EMPTY;
+        for (int i = 0; i < type.halfSteps.length; i++)
+        {
+            int keyNum = rootKeyNum + type.halfSteps[i];
+            if (i < inversion)
+                { keyNum += 12; }
+            set = set.with(keyNum);
+        }
+        return set;
+    }
+
+    // Names the chord formed by the held keys, or returns null if they do not form a known chord
+    public static Chord recognize(KeySet held)
+    {
+        if (held.size() < 3)
+            { return null; }
+        return recognize(held.pitchClassMask(), KeySet.pitchClass(held.lowest()));
+    }
+
+    // Names the chord for a pitch-class mask with the given bass pitch class
+    public static Chord recognize(int pitchClassMask, int bass)
+    {
+        // Try the bass first so root position wins when a mask matches more than one root
+        Chord match = chordAt(pitchClassMask, bass, bass);
+        for (int root = 0; root < 12 && match == null; root++)
+        {
+            if (root != bass && (pitchClassMask & (1 << root)) != 0)
+                { match = chordAt(pitchClassMask, root, bass); }
+        }
+        return match;
+    }
+
+    // Returns the chord rooted on root if the rotated mask is a known chord
+    private static Chord chordAt(int pitchClassMask, int root, int bass)
+    {
+        ChordType type = Tables.TYPE_BY_MASK[rotate(pitchClassMask, root)];
+        if (type == null)
+            { return null; }
+        int bassInterval = (bass - root + 12) % 12;
+        int inversion = 0;
+        while (type.halfSteps[inversion] != bassInterval)
+            { inversion++; }
+        return Tables.CHORDS[root][type.ordinal()][inversion];
+    }
+
+    // Labels many key sets at once; sets are given as parallel low/high words
+    public static void recognizeAll(long [] low, long [] high, Chord [] out)
+    {
+        for (int i = 0; i < out.length; i++)
+        {
+            KeySet set = new KeySet(low[i], high[i]);
+            out[i] = set.size() < 3 ? null : recognize(set.pitchClassMask(), KeySet.pitchClass(set.lowest()));
+        }
+    }
+
+    // Returns the pitch-class name of a key, e.g. "C#"
+    public static String pitchName(int keyNum)
+    {
+        return PITCH_NAMES[KeySet.pitchClass(keyNum)];
+    }
+}
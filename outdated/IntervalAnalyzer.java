@@ -0,0 +1,382 @@
+/*
+ * Streams large note-event files and builds melodic and harmonic interval histograms
+ *
+ * CSV input has one event per line: <tick>,<note>[,...] where note is a key number (1-88) or a name like C4, Eb4
+ * Lines that do not parse (headers, comments) are skipped; events sharing a tick sound together
+ * Melodic intervals are measured between consecutive events whose ticks differ (signed, up is positive)
+ * Harmonic intervals are every pair of distinct keys sounding at the same tick
+ * MIDI files (.mid) are read through MidiSequence and analyzed the same way
+ *
+ * A CSV file is cut into byte ranges that are scanned in parallel with positional reads into a reused buffer,
+ * so the corpus is never held in memory and no objects are created per event
+ * Each range keeps its own counters plus the events at its edges, and ranges are stitched together in order at the end
+ *
+ * Usage: java IntervalAnalyzer <file> ...
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class IntervalAnalyzer {
+    public static final int MAX_INTERVAL = 87; // Widest interval on the keyboard
+    protected static final int MIN_SPLIT = 1 << 20; // Smallest byte range worth its own task
+    protected static final int READ_BUFFER = 1 << 16;
+    protected static final int [] LETTER_SEMITONES = { 9, 11, 0, 2, 4, 5, 7 }; // A-G relative to C
+
+    protected ExecutorService pool;
+    protected int parallelism;
+
+    public IntervalAnalyzer(int parallelism)
+    {
+        this.parallelism = parallelism;
+        this.pool = Executors.newFixedThreadPool(parallelism);
+    }
+
+    // Interval counts, melodic indexed by signed half steps + MAX_INTERVAL, harmonic by half steps
+    public static class Histogram {
+        protected final long [] melodic = new long [2 * MAX_INTERVAL + 1];
+        protected final long [] harmonic = new long [MAX_INTERVAL + 1];
+        protected long events;
+
+        // Returns how many melodic steps moved by halfSteps (negative is downward)
+        public long getMelodic(int halfSteps)
+        {
+            return this.melodic[halfSteps + MAX_INTERVAL];
+        }
+
+        // Returns how many simultaneous key pairs were halfSteps apart
+        public long getHarmonic(int halfSteps)
+        {
+            return this.harmonic[halfSteps];
+        }
+
+        // Returns how many note events were read
+        public long getEvents()
+        {
+            return this.events;
+        }
+
+        void add(Histogram other)
+        {
+            for (int i = 0; i < this.melodic.length; i++)
+                { this.melodic[i] += other.melodic[i]; }
+            for (int i = 0; i < this.harmonic.length; i++)
+                { this.harmonic[i] += other.harmonic[i]; }
+            this.events += other.events;
+        }
+
+        // Counts every pair of keys in a group sounding together, straight from the two words of its key bits:
+        // the pairs d half steps apart are the bits set both in the group and in the group shifted down by d
+        void countGroup(long low, long high)
+        {
+            if (Long.bitCount(low) + Long.bitCount(high) < 2)
+                { return; }
+            int lowest = low != 0L ? Long.numberOfTrailingZeros(low) : 64 + Long.numberOfTrailingZeros(high);
+            int highest = high != 0L ? 127 - Long.numberOfLeadingZeros(high) : 63 - Long.numberOfLeadingZeros(low);
+            for (int d = 1; d <= highest - lowest; d++)
+            {
+                long shiftedLow = d < 64 ? low >>> d | high << (64 - d) : high >>> (d - 64);
+                long shiftedHigh = d < 64 ? high >>> d : 0L;
+                this.harmonic[d] += Long.bitCount(low & shiftedLow) + Long.bitCount(high & shiftedHigh);
+            }
+        }
+    }
+
+    // Counts for one contiguous slice of events, plus what is needed to join it to its neighbours
+    static class Segment {
+        final Histogram counts = new Histogram();
+        boolean empty = true;
+        boolean singleGroup = true; // True until a second tick is seen
+        long firstTick;
+        int firstKey;
+        long firstLow, firstHigh; // First group, left for the merge because it may continue the previous segment
+        long tick;
+        int key;
+        long low, high; // Current (last) group, left for the merge because it may continue into the next segment
+
+        void accept(long eventTick, int keyNum)
+        {
+            this.counts.events++;
+            if (this.empty)
+            {
+                this.empty = false;
+                this.firstTick = eventTick;
+                this.firstKey = keyNum;
+            }
+            else if (eventTick != this.tick)
+            {
+                this.counts.melodic[keyNum - this.key + MAX_INTERVAL]++;
+                if (this.singleGroup)
+                {
+                    this.singleGroup = false;
+                    this.firstLow = this.low;
+                    this.firstHigh = this.high;
+                }
+                else
+                    { this.counts.countGroup(this.low, this.high); }
+                this.low = 0L;
+                this.high = 0L;
+            }
+            this.tick = eventTick;
+            this.key = keyNum;
+            if (keyNum <= 64) { this.low |= 1L << (keyNum - 1); }
+            else { this.high |= 1L << (keyNum - 65); }
+        }
+    }
+
+    // Joins segments in file order, counting the groups and melodic steps that span their edges
+    static Histogram merge(List<Segment> segments)
+    {
+        Histogram total = new Histogram();
+        boolean carrying = false;
+        long carryTick = 0L;
+        int carryKey = 0;
+        long carryLow = 0L, carryHigh = 0L;
+        for (Segment s : segments)
+        {
+            total.add(s.counts);
+            if (s.empty)
+                { continue; }
+            long headLow = s.singleGroup ? s.low : s.firstLow;
+            long headHigh = s.singleGroup ? s.high : s.firstHigh;
+            if (carrying && carryTick == s.firstTick)
+            {
+                // The previous segment's last group continues here
+                headLow |= carryLow;
+                headHigh |= carryHigh;
+            }
+            else if (carrying)
+            {
+                total.countGroup(carryLow, carryHigh);
+                total.melodic[s.firstKey - carryKey + MAX_INTERVAL]++;
+            }
+
+            if (s.singleGroup)
+            {
+                carryLow = headLow;
+                carryHigh = headHigh;
+            }
+            else
+            {
+                total.countGroup(headLow, headHigh);
+                carryLow = s.low;
+                carryHigh = s.high;
+            }
+            carrying = true;
+            carryTick = s.tick;
+            carryKey = s.key;
+        }
+        if (carrying)
+            { total.countGroup(carryLow, carryHigh); }
+        return total;
+    }
+
+    // Analyzes every file and returns the combined histogram; melodic steps do not run from one file into the next
+    public Histogram analyze(List<File> files) throws IOException, InterruptedException
+    {
+        List<List<Future<Segment>>> perFile = new ArrayList<>();
+        for (File file : files)
+        {
+            List<Future<Segment>> parts = new ArrayList<>();
+            if (file.getName().toLowerCase().endsWith(".mid"))
+                { parts.add(this.pool.submit(() -> scanMidi(file))); }
+            else
+            {
+                long size = file.length();
+                long split = Math.max(MIN_SPLIT, size / (this.parallelism * 4L) + 1);
+                for (long start = 0; start < size; start += split)
+                {
+                    long from = start;
+                    long to = Math.min(size, start + split);
+                    parts.add(this.pool.submit(() -> scanCsv(file, from, to)));
+                }
+            }
+            perFile.add(parts);
+        }
+
+        Histogram total = new Histogram();
+        for (List<Future<Segment>> parts : perFile)
+        {
+            List<Segment> segments = new ArrayList<>();
+            for (Future<Segment> part : parts)
+            {
+                try {
+                    segments.add(part.get());
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+            total.add(merge(segments));
+        }
+        return total;
+    }
+
+    public void shutdown()
+    {
+        this.pool.shutdown();
+    }
+
+    // Scans the lines that begin inside [start, end) of a CSV file; the last line may run past end
+    static Segment scanCsv(File file, long start, long end) throws IOException
+    {
+        Segment segment = new Segment();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+        byte [] note = new byte [8];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long pos = start;
+            boolean skipping = start > 0; // A line that began before start belongs to the previous range
+            if (skipping)
+                { pos = start - 1; }
+            long lineStart = pos;
+            int field = 0;
+            long tick = 0L;
+            boolean tickValid = false;
+            boolean invalid = false;
+            int noteLength = 0;
+
+            while (true)
+            {
+                buffer.clear();
+                int n = channel.read(buffer, pos);
+                if (n <= 0)
+                    { break; }
+                byte [] data = buffer.array();
+                boolean done = false;
+                for (int i = 0; i < n && !done; i++, pos++)
+                {
+                    byte c = data[i];
+                    if (c == '\n')
+                    {
+                        if (!skipping && !invalid && field >= 1 && tickValid)
+                            { acceptNote(segment, tick, note, noteLength); }
+                        skipping = false;
+                        field = 0;
+                        tick = 0L;
+                        tickValid = false;
+                        invalid = false;
+                        noteLength = 0;
+                        lineStart = pos + 1;
+                        done = lineStart >= end;
+                    }
+                    else if (skipping || invalid || c == '\r' || c == ' ')
+                        { continue; }
+                    else if (c == ',')
+                        { field++; }
+                    else if (field == 0)
+                    {
+                        if (c < '0' || c > '9')
+                            { invalid = true; } // Not an event line
+                        tick = tick * 10 + (c - '0');
+                        tickValid = true;
+                    }
+                    else if (field == 1 && noteLength < note.length)
+                        { note[noteLength++] = c; }
+                }
+                if (done)
+                    { break; }
+            }
+            // Last line without a trailing newline
+            if (!skipping && !invalid && lineStart < end && field >= 1 && tickValid)
+                { acceptNote(segment, tick, note, noteLength); }
+        }
+        return segment;
+    }
+
+    // Parses a note field and adds it to the segment if it names a key
+    private static void acceptNote(Segment segment, long tick, byte [] note, int length)
+    {
+        int keyNum = parseKeyNum(note, length);
+        if (keyNum > 0)
+            { segment.accept(tick, keyNum); }
+    }
+
+    // Parses a key number (1-88) or a note name such as C4, Eb4, F##2; returns -1 if invalid
+    static int parseKeyNum(byte [] s, int length)
+    {
+        if (length == 0)
+            { return -1; }
+        int i = 0;
+        int value = 0;
+        if (s[0] >= '0' && s[0] <= '9')
+        {
+            for (; i < length; i++)
+            {
+                if (s[i] < '0' || s[i] > '9')
+                    { return -1; }
+                value = value * 10 + (s[i] - '0');
+            }
+            return value >= 1 && value <= 88 ? value : -1;
+        }
+
+        int letter = (s[0] & ~0x20) - 'A';
+        if (letter < 0 || letter > 6)
+            { return -1; }
+        int semitone = LETTER_SEMITONES[letter];
+        for (i = 1; i < length; i++)
+        {
+            int c = s[i] == '#' ? '#' : s[i] | 0x20; // Accidentals in either case
+            if (c == '#') { semitone++; }
+            else if (c == 'x') { semitone += 2; }
+            else if (c == 'b') { semitone--; }
+            else { break; }
+        }
+        if (i == length)
+            { return -1; }
+        for (; i < length; i++)
+        {
+            if (s[i] < '0' || s[i] > '9')
+                { return -1; }
+            value = value * 10 + (s[i] - '0');
+        }
+        int keyNum = value * 12 + semitone - 8; // C4 is key 40
+        return keyNum >= 1 && keyNum <= 88 ? keyNum : -1;
+    }
+
+    // Reads the note-ons of a MIDI file as one segment
+    static Segment scanMidi(File file) throws Exception
+    {
+        Segment segment = new Segment();
+        for (NoteEvent e : MidiSequence.load(file))
+        {
+            if (e.isNoteOn())
+                { segment.accept(e.getFrame(), e.getKeyNum()); }
+        }
+        return segment;
+    }
+
+    public static void main(String [] args) throws Exception
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Usage: java IntervalAnalyzer <file> ...");
+            return;
+        }
+        List<File> files = new ArrayList<>();
+        for (String arg : args)
+            { files.add(new File(arg)); }
+
+        IntervalAnalyzer analyzer = new IntervalAnalyzer(Runtime.getRuntime().availableProcessors());
+        long t = System.nanoTime();
+        Histogram h;
+        try {
+            h = analyzer.analyze(files);
+        }
+        finally { analyzer.shutdown(); }
+        System.out.printf("%d events in %.2f s%n", h.getEvents(), (System.nanoTime() - t) / 1e9);
+        System.out.println("Half steps   Melodic up   Melodic down   Harmonic");
+        for (int i = 0; i <= MAX_INTERVAL; i++)
+        {
+            long up = h.getMelodic(i);
+            long down = i == 0 ? 0 : h.getMelodic(-i);
+            if (up + down + h.getHarmonic(i) > 0)
+                { System.out.printf("%10d %12d %14d %10d%n", i, up, down, h.getHarmonic(i)); }
+        }
+    }
+}
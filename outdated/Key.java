@@ -21,13 +21,15 @@ public class Key {
     protected boolean blackKey; //Black or white key
     protected int keyNum; //Key number within range of 88 keys
     protected String name; //Key name
+    protected double frequency; //Equal-tempered pitch in Hz
     protected String audioPath; //Check audio object
     protected AudioInputStream audio; 
 
-    public Key(int n, String s, boolean b) {
+    public Key(int n, String s, boolean b, double freq) {
         this.keyNum = n;
         this.name = s; 
         this.blackKey = b;
+        this.frequency = freq;
         // this.audioPath = "\\PianoSamples\\" + this.name + ".aiff";
         this.audioPath = "./PianoSamples/" + this.name + ".wav";
     }
@@ -49,19 +51,33 @@ public class Key {
         return this.blackKey;
     }
 
+    // Returns note frequency in Hz
+    public double getFrequency()
+    {
+        return this.frequency;
+    }
+
     public String getAudioPath()
     {
         return this.audioPath; 
     }
 
+    // Decodes and plays the key's file directly; Keyboard.playKeyAudio plays from the preloaded SampleBank instead
     public void playAudio()
     {
         try {
             this.audio = AudioSystem.getAudioInputStream(new File(this.audioPath).getAbsoluteFile());
             Clip clip = AudioSystem.getClip(); 
+            clip.addLineListener(event -> {
+                if (event.getType() == LineEvent.Type.STOP)
+                    { event.getLine().close(); }
+            });
             clip.open(this.audio); 
             clip.start();  
         }
-        catch (Exception e) { System.out.println("Error: Audio not found"); }
+        catch (Exception e) {
+            AudioMetrics.get().failure();
+            System.out.println("Error: Audio not found");
+        }
     }
 }
@@ -0,0 +1,202 @@
+/*
+ * A set of keys on the 88-key keyboard stored as a 128-bit bitset in two longs
+ * Bit (keyNum - 1) of low holds keys 1-64, bit (keyNum - 65) of high holds keys 65-88
+ * Instances are immutable so they can be shared freely between the GUI and audio threads
+ */
+
+public final class KeySet {
+    public static final KeySet EMPTY = new KeySet(0L, 0L);
+    protected static final long [] PITCH_CLASS_LOW = new long [12]; // Every key of each pitch class (C = 0)
+    protected static final long [] PITCH_CLASS_HIGH = new long [12];
+
+    static
+    {
+        for (int keyNum = 1; keyNum <= 88; keyNum++)
+        {
+            int pc = pitchClass(keyNum);
+            if (keyNum <= 64)
+                { PITCH_CLASS_LOW[pc] |= 1L << (keyNum - 1); }
+            else
+                { PITCH_CLASS_HIGH[pc] |= 1L << (keyNum - 65); }
+        }
+    }
+
+    protected final long low;
+    protected final long high;
+
+    public KeySet(long low, long high)
+    {
+        this.low = low;
+        this.high = high & ((1L << 24) - 1); // Only 24 keys live in the high word
+    }
+
+    // Returns the pitch class of a key number (C = 0, C# = 1, ..., B = 11)
+    public static int pitchClass(int keyNum)
+    {
+        return (keyNum + 8) % 12;
+    }
+
+    // Returns a set containing the given keys
+    public static KeySet of(int ... keyNums)
+    {
+        KeySet set = EMPTY;
+        for (int keyNum : keyNums)
+            { set = set.with(keyNum); }
+        return set;
+    }
+
+    // Returns every key whose pitch class is in a 12-bit mask (bit 0 = C)
+    public static KeySet ofPitchClasses(int mask)
+    {
+        long low = 0L;
+        long high = 0L;
+        for (int pc = 0; pc < 12; pc++)
+        {
+            if ((mask & (1 << pc)) != 0)
+            {
+                low |= PITCH_CLASS_LOW[pc];
+                high |= PITCH_CLASS_HIGH[pc];
+            }
+        }
+        return new KeySet(low, high);
+    }
+
+    // Returns every key from first to last inclusive
+    public static KeySet range(int first, int last)
+    {
+        first = Math.max(first, 1);
+        last = Math.min(last, 88);
+        if (first > last)
+            { return EMPTY; }
+        return new KeySet(bitsUpTo(last) & ~bitsUpTo(first - 1), highBitsUpTo(last) & ~highBitsUpTo(first - 1));
+    }
+
+    // Bits for keys 1..keyNum in the low word
+    private static long bitsUpTo(int keyNum)
+    {
+        if (keyNum <= 0) { return 0L; }
+        if (keyNum >= 64) { return -1L; }
+        return (1L << keyNum) - 1;
+    }
+
+    // Bits for keys 65..keyNum in the high word
+    private static long highBitsUpTo(int keyNum)
+    {
+        return keyNum <= 64 ? 0L : bitsUpTo(keyNum - 64);
+    }
+
+    public boolean contains(int keyNum)
+    {
+        if (keyNum < 1 || keyNum > 88)
+            { return false; }
+        return keyNum <= 64 ? (this.low & (1L << (keyNum - 1))) != 0 : (this.high & (1L << (keyNum - 65))) != 0;
+    }
+
+    // Returns this set with a key added
+    public KeySet with(int keyNum)
+    {
+        if (keyNum < 1 || keyNum > 88)
+            { return this; }
+        return keyNum <= 64 ? new KeySet(this.low | (1L << (keyNum - 1)), this.high)
+                            : new KeySet(this.low, this.high | (1L << (keyNum - 65)));
+    }
+
+    // Returns this set with a key removed
+    public KeySet without(int keyNum)
+    {
+        if (!contains(keyNum))
+            { return this; }
+        return keyNum <= 64 ? new KeySet(this.low & ~(1L << (keyNum - 1)), this.high)
+                            : new KeySet(this.low, this.high & ~(1L << (keyNum - 65)));
+    }
+
+    public KeySet union(KeySet other)
+    {
+        return new KeySet(this.low | other.low, this.high | other.high);
+    }
+
+    public KeySet intersect(KeySet other)
+    {
+        return new KeySet(this.low & other.low, this.high & other.high);
+    }
+
+    // Returns the number of keys in the set
+    public int size()
+    {
+        return Long.bitCount(this.low) + Long.bitCount(this.high);
+    }
+
+    public boolean isEmpty()
+    {
+        return this.low == 0L && this.high == 0L;
+    }
+
+    // Returns the lowest key number in the set, or -1 if empty
+    public int lowest()
+    {
+        if (this.low != 0L)
+            { return Long.numberOfTrailingZeros(this.low) + 1; }
+        if (this.high != 0L)
+            { return Long.numberOfTrailingZeros(this.high) + 65; }
+        return -1;
+    }
+
+    // Returns the next key number above keyNum in the set, or -1 if none; start with nextAbove(0)
+    public int nextAbove(int keyNum)
+    {
+        if (keyNum < 64)
+        {
+            long rest = keyNum <= 0 ? this.low : this.low & ~bitsUpTo(keyNum);
+            if (rest != 0L)
+                { return Long.numberOfTrailingZeros(rest) + 1; }
+            keyNum = 64;
+        }
+        long rest = this.high & ~bitsUpTo(keyNum - 64);
+        return rest != 0L ? Long.numberOfTrailingZeros(rest) + 65 : -1;
+    }
+
+    // Returns a 12-bit mask of the pitch classes present (bit 0 = C)
+    public int pitchClassMask()
+    {
+        int mask = 0;
+        for (int pc = 0; pc < 12; pc++)
+        {
+            if ((this.low & PITCH_CLASS_LOW[pc]) != 0L || (this.high & PITCH_CLASS_HIGH[pc]) != 0L)
+                { mask |= 1 << pc; }
+        }
+        return mask;
+    }
+
+    public long getLow()
+    {
+        return this.low;
+    }
+
+    public long getHigh()
+    {
+        return this.high;
+    }
+
+    public boolean equals(Object o)
+    {
+        return o instanceof KeySet && ((KeySet) o).low == this.low && ((KeySet) o).high == this.high;
+    }
+
+    public int hashCode()
+    {
+        return Long.hashCode(this.low) * 31 + Long.hashCode(this.high);
+    }
+
+    // Lists key names, e.g. [C4, E4, G4]
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for (int k = nextAbove(0); k != -1; k = nextAbove(k))
+        {
+            if (sb.length() > 1)
+                { sb.append(", "); }
+            sb.append(Keyboard.KEY_NAMES[k - 1]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -5,10 +5,13 @@
  * @Last Modified time: 2023-03-28 15:09:38
  */
 
+import java.io.*;
 import java.util.*;
+import java.util.function.Function;
+import javax.sound.sampled.*;
 
 public class Keyboard {
-    protected final String [] KEY_NAMES = { "A0", "A#0", "B0", 
+    protected static final String [] KEY_NAMES = { "A0", "A#0", "B0", 
                                             "C1", "C#1", "D1", "D#1", "E1", "F1", "F#1", "G1", "G#1", "A1", "A#1", "B1", 
                                             "C2", "C#2", "D2", "D#2", "E2", "F2", "F#2", "G2", "G#2", "A2", "A#2", "B2",
                                             "C3", "C#3", "D3", "D#3", "E3", "F3", "F#3", "G3", "G#3", "A3", "A#3", "B3",
@@ -17,14 +20,63 @@ public class Keyboard {
                                             "C6", "C#6", "D6", "D#6", "E6", "F6", "F#6", "G6", "G#6", "A6", "A#6", "B6",
                                             "C7", "C#7", "D7", "D#7", "E7", "F7", "F#7", "G7", "G#7", "A7", "A#7", "B7",
                                             "C8" };
-    protected final int NUMBER_KEYS = 88; 
+    protected static final int NUMBER_KEYS = 88; 
+    protected static final double A0_FREQUENCY = 27.5;
 
     protected Key [] keys; // Array holding all key objects
     protected String [] audioFilePath; 
+    protected SampleSource samples; // Audio for every key
+    protected AudioEngine engine; // Mixes every note into a single output line
+    protected NoteClient client; // Server that plays the notes instead, when the engine runs in another process
 
+    // Creates a keyboard that loads its samples in the background, nearest middle C first; keys play as they arrive
     public Keyboard() {
-        this.keys = new Key [NUMBER_KEYS]; //Array of 88 key objects
+        this(ProgressiveSampleBank::new);
+    }
+
+    // Creates a keyboard whose samples come from the given loader, e.g. keys -> new SampleCache(keys, budget) or StringModel::new
+    public Keyboard(Function<Key [], SampleSource> sampleLoader) {
+        this.keys = createKeys(); //Array of 88 key objects
         this.audioFilePath = new String [NUMBER_KEYS]; //Array of audio file path Strings
+        for (int i = 0; i < keys.length; i++)
+            { this.audioFilePath[i] = keys[i].getAudioPath(); }
+
+        this.samples = sampleLoader.apply(this.keys);
+        this.engine = createEngine(this.samples);
+    }
+
+    // Builds an engine with the default effects, publishes its metrics over JMX and starts it
+    // If no output line is available the failure is reported and the engine is returned unstarted (see isRunning)
+    public static AudioEngine createEngine(SampleSource samples)
+    {
+        AudioEngine engine = new AudioEngine(samples, NUMBER_KEYS); // Enough voices for every key at once
+        engine.setEffects(EffectsChain.createDefault());
+        AudioMetrics.register();
+        engine.getEffects().register();
+        engine.getBufferTuner().register();
+        try {
+            engine.start();
+        }
+        catch (LineUnavailableException e) {
+            AudioMetrics.get().failure();
+            System.out.println("Error: Audio output unavailable");
+        }
+        return engine;
+    }
+
+    // Creates a keyboard that loads no audio and sends its notes to a NoteServer
+    public Keyboard(NoteClient client) {
+        this.keys = createKeys();
+        this.audioFilePath = new String [NUMBER_KEYS];
+        for (int i = 0; i < keys.length; i++)
+            { this.audioFilePath[i] = keys[i].getAudioPath(); }
+        this.client = client;
+    }
+
+    // Builds the 88 key objects without loading any audio
+    public static Key [] createKeys()
+    {
+        Key [] keys = new Key [NUMBER_KEYS];
 
         // Creating a set that stores the key numbers for black keys
         Set<Integer> blackKeyNums = new HashSet<>(); 
@@ -37,16 +89,100 @@ public class Keyboard {
 
         for (int i = 0; i < keys.length; i++)
         {
-            // Initialize a new key object
-            Key newKey = new Key( (i + 1) , KEY_NAMES[i], blackKeyNums.contains(i + 1) );
-            // Store key object in keys array
-            this.keys[i] = newKey; 
+            // Initialize a new key object and store it in keys array
+            keys[i] = new Key( (i + 1) , KEY_NAMES[i], blackKeyNums.contains(i + 1), calculateFrequency(i) );
         }
+        return keys;
+    }
+
+    // Calculates frequency of a key index using equal temperament
+    public static double calculateFrequency(int keyIndex)
+    {
+        return A0_FREQUENCY * Math.pow(2, keyIndex / 12.0);
     }
 
+    // Inverse of calculateFrequency: the key number (1-88) a frequency falls on, with the fraction in semitones
+    public static double keyNumberOf(double frequency)
+    {
+        return 1 + 12 * Math.log(frequency / A0_FREQUENCY) / Math.log(2);
+    }
+
+    // Posts the key to the audio engine's queue without blocking; the note starts on the engine's next render pass
+    // Call from one thread only (the EDT when used by the GUI)
     public void playKeyAudio(int id)
     {
-        this.keys[id].playAudio();
+        if (this.client != null)
+            { this.client.noteOn(this.keys[id].getKeyNum(), 127); }
+        else
+            { this.engine.noteOn(this.keys[id].getKeyNum()); }
+    }
+
+    // Lets go of a key; its sound fades out unless the sustain pedal is down
+    public void releaseKeyAudio(int id)
+    {
+        if (this.client != null)
+            { this.client.noteOff(this.keys[id].getKeyNum()); }
+        else
+            { this.engine.noteOff(this.keys[id].getKeyNum()); }
+    }
+
+    // Presses or lifts the sustain pedal
+    public void setSustain(boolean down)
+    {
+        if (this.client != null)
+            { this.client.setSustain(down); }
+        else
+            { this.engine.setSustain(down); }
+    }
+
+    // Plays a list of timed note events through the audio engine with sample-accurate timing
+    public void playSequence(List<NoteEvent> events)
+    {
+        if (this.engine == null)
+            { throw new UnsupportedOperationException("Sequences can only be played by a local audio engine"); }
+        this.engine.play(new NoteSequencer(events));
+    }
+
+    // Starts recording everything played into a new session directory; only a keyboard with a local engine can record
+    public NoteRecorder startRecording(File directory) throws IOException
+    {
+        if (this.engine == null)
+            { throw new UnsupportedOperationException("Only a local audio engine can be recorded"); }
+        stopRecording();
+        NoteRecorder recorder = new NoteRecorder(directory);
+        this.engine.setRecorder(recorder);
+        return recorder;
+    }
+
+    // Stops recording, if recording, and flushes the log to disk
+    public void stopRecording() throws IOException
+    {
+        NoteRecorder recorder = this.engine == null ? null : this.engine.detachRecorder();
+        if (recorder != null)
+            { recorder.close(); }
+    }
+
+    // Returns the queue playKeyAudio posts to, for its back-pressure statistics, or null when notes go to a server
+    public NoteQueue getNoteQueue()
+    {
+        return this.engine == null ? null : this.engine.getDefaultQueue();
+    }
+
+    public SampleSource getSampleSource()
+    {
+        return this.samples;
+    }
+
+    // Returns the master-bus effects, or null when notes go to a NoteServer
+    public EffectsChain getEffects()
+    {
+        return this.engine == null ? null : this.engine.getEffects();
+    }
+
+    // Returns the output buffer tuner, or null when notes go to a NoteServer
+    public BufferTuner getBufferTuner()
+    {
+        return this.engine == null ? null : this.engine.getBufferTuner();
     }
 
     public String getKeyPlayed(int id)
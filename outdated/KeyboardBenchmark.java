@@ -0,0 +1,138 @@
+/*
+ * Headless micro-benchmarks for the keyboard model and audio paths
+ * Each benchmark is warmed up, then timed over several trials by Bench; the best and mean time per operation are printed
+ *
+ * Usage: java KeyboardBenchmark [filter]   (run from the project root so ./PianoSamples resolves)
+ */
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+public class KeyboardBenchmark {
+    public static void main(String [] args) throws Exception
+    {
+        String filter = args.length > 0 ? args[0] : "";
+        Key [] keys = Keyboard.createKeys();
+        File c4 = new File(keys[39].getAudioPath());
+        SampleBank bank = new SampleBank(keys);
+
+        if ("keys.create".contains(filter) || filter.isEmpty())
+            { Bench.measure("keys.create", 20000, Keyboard::createKeys); }
+        if ("keys.getName".contains(filter) || filter.isEmpty())
+        {
+            int [] i = { 0 };
+            Bench.measure("keys.getName", 1000000, () -> keys[i[0]++ % 88].getName());
+        }
+        if ("wav.decode".contains(filter) || filter.isEmpty())
+            { Bench.measure("wav.decode (C4, AudioInputStream)", 200, () -> SampleBank.decode(c4)); }
+        if ("sample.condition".contains(filter) || filter.isEmpty())
+        {
+            Sample raw = SampleBank.decode(c4);
+            Bench.measure("sample.condition (C4, trim, loop search, gain)", 200, () -> SampleConditioner.condition(raw));
+        }
+        if ("wav.map".contains(filter) || filter.isEmpty())
+        {
+            Bench.measure("wav.map (C4, mapped header parse)", 2000, () -> {
+                try (FileChannel ch = FileChannel.open(c4.toPath(), StandardOpenOption.READ))
+                {
+                    ByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                    return WavFile.parse(mapped);
+                }
+            });
+        }
+        if ("engine.noteOnToFirstBlock".contains(filter) || filter.isEmpty())
+        {
+            // Note-on followed by the render pass that produces its first samples; no output line is opened
+            AudioEngine engine = new AudioEngine(bank);
+            int [] i = { 0 };
+            Bench.measure("engine.noteOnToFirstBlock", 20000, () -> {
+                engine.noteOn(1 + i[0]++ % 88);
+                engine.renderBlock();
+                return engine.output;
+            });
+        }
+        if ("engine.renderBlock64".contains(filter) || filter.isEmpty())
+        {
+            // Steady-state block render with the voice pool full
+            AudioEngine engine = new AudioEngine(bank);
+            Bench.measure("engine.renderBlock64", 5000, () -> {
+                while (engine.getActiveVoiceCount() < engine.getMaxPolyphony())
+                {
+                    for (int k = 1; k <= engine.getMaxPolyphony(); k++)
+                        { engine.noteOn(k); }
+                    engine.renderBlock();
+                }
+                engine.renderBlock();
+                return engine.output;
+            });
+        }
+        if ("engine.strings88".contains(filter) || filter.isEmpty())
+        {
+            // Every key sounding at once on the physical model; a block must render well inside its own duration
+            AudioEngine engine = new AudioEngine(new StringModel(keys), Keyboard.NUMBER_KEYS);
+            Bench.measure("engine.strings88", 2000, () -> {
+                if (engine.getActiveVoiceCount() < Keyboard.NUMBER_KEYS)
+                {
+                    for (int k = 1; k <= Keyboard.NUMBER_KEYS; k++)
+                        { engine.noteOn(k); }
+                }
+                engine.renderBlock();
+                return engine.output;
+            });
+            Bench.measure("model.create (StringModel)", 20, () -> new StringModel(keys));
+        }
+        if ("effects.process".contains(filter) || filter.isEmpty())
+        {
+            // Default master-bus chain over one engine block of noise, with an EQ band active so it does real work
+            EffectsChain chain = EffectsChain.createDefault();
+            ((Equalizer) chain.getEffect("eq")).setBand(1, 500, 3, 1);
+            float [] left = new float [AudioEngine.BLOCK_FRAMES];
+            float [] right = new float [AudioEngine.BLOCK_FRAMES];
+            java.util.Random random = new java.util.Random(1);
+            Bench.measure("effects.process (eq, reverb, limiter)", 20000, () -> {
+                for (int i = 0; i < left.length; i++)
+                {
+                    left[i] = random.nextFloat() * 2 - 1;
+                    right[i] = left[i];
+                }
+                chain.process(left, right, 0, left.length);
+                return left;
+            });
+            System.out.print(chain.report());
+        }
+        if ("fft.windowPair".contains(filter) || filter.isEmpty())
+        {
+            // Two transcription windows through one complex FFT, as NoteTranscriber runs them
+            Fft fft = new Fft(NoteTranscriber.WINDOW_SIZE);
+            float [] re = new float [NoteTranscriber.WINDOW_SIZE];
+            float [] im = new float [NoteTranscriber.WINDOW_SIZE];
+            float [] first = new float [NoteTranscriber.WINDOW_SIZE / 2 + 1];
+            float [] second = new float [NoteTranscriber.WINDOW_SIZE / 2 + 1];
+            float [] signal = new float [NoteTranscriber.WINDOW_SIZE];
+            for (int i = 0; i < signal.length; i++)
+                { signal[i] = (float) Math.sin(i * 0.1); }
+            Bench.measure("fft.windowPair (8192)", 2000, () -> {
+                System.arraycopy(signal, 0, re, 0, re.length);
+                System.arraycopy(signal, 0, im, 0, im.length);
+                fft.transform(re, im);
+                fft.magnitudes(re, im, first, second);
+                return first;
+            });
+        }
+        if ("bank.load".contains(filter) || filter.isEmpty())
+        {
+            // Whole-bank startup cost; the compressed bank is built with: java CompressedSampleBank PianoSamples PianoSamples.pkz
+            Bench.measure("bank.load (88 WAVs)", 5, () -> new SampleBank(keys));
+            File compressed = new File("PianoSamples.pkz");
+            if (compressed.isFile())
+                { Bench.measure("bank.load (compressed, parallel decode)", 5, () -> new CompressedSampleBank(compressed)); }
+        }
+        if ("harmony.recognize".contains(filter) || filter.isEmpty())
+        {
+            KeySet chord = Harmony.chord(43, Harmony.ChordType.MINOR_7, 2);
+            Bench.measure("harmony.recognize", 1000000, () -> Harmony.recognize(chord));
+        }
+    }
+}
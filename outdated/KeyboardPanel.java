@@ -0,0 +1,228 @@
+/*
+ * A single component that paints the whole 88-key keyboard from the Key model
+ * Key rectangles are computed from the current size, so the keyboard scales to any width or screen density
+ * Mouse hit-testing is arithmetic: black keys are checked first in their upper band, then the white key underneath
+ * Pressed keys are highlighted and only the rectangles of keys whose state changed are repainted
+ * Keys whose sample has not loaded yet are shaded grey
+ */
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.util.*;
+import java.util.List;
+
+public class KeyboardPanel extends JComponent {
+    private static final long serialVersionUID = 1L;
+    protected static final int PREFERRED_WHITE_WIDTH = 10;
+    protected static final int PREFERRED_HEIGHT = 60;
+    protected static final double BLACK_WIDTH = 0.6; // Fraction of a white key
+    protected static final double BLACK_HEIGHT = 0.6; // Fraction of the keyboard height
+    protected static final Color PRESSED_WHITE = new Color(255, 200, 80);
+    protected static final Color PRESSED_BLACK = new Color(200, 120, 0);
+    protected static final Color UNLOADED_WHITE = Color.LIGHT_GRAY;
+    protected static final Color UNLOADED_BLACK = Color.GRAY;
+
+    protected Key [] keys;
+    protected int whiteCount;
+    protected int [] whiteIndex; // For each keyNum, its index among white keys (for black keys, the white key to its left)
+    protected int [] whiteKeyNums; // keyNum of each white key, left to right
+    protected int [] blackAfterWhite; // keyNum of the black key right of each white key, or 0
+    protected volatile KeySet pressed = KeySet.EMPTY;
+    protected volatile KeySet available = KeySet.range(1, 88); // Keys that can sound, all until told otherwise
+    protected List<PianoKeyListener> listeners = new ArrayList<>();
+    protected int mouseKey; // Key held down by the mouse, or 0
+
+    public KeyboardPanel(Key [] keys)
+    {
+        this.keys = keys;
+        this.whiteIndex = new int [keys.length + 1];
+        this.blackAfterWhite = new int [keys.length];
+        this.whiteKeyNums = new int [keys.length];
+        int white = -1;
+        for (Key key : keys)
+        {
+            if (key.getBlackKey())
+            {
+                this.whiteIndex[key.getKeyNum()] = white;
+                this.blackAfterWhite[white] = key.getKeyNum();
+            }
+            else
+            {
+                white++;
+                this.whiteIndex[key.getKeyNum()] = white;
+                this.whiteKeyNums[white] = key.getKeyNum();
+            }
+        }
+        this.whiteCount = white + 1;
+        setPreferredSize(new Dimension(this.whiteCount * PREFERRED_WHITE_WIDTH + 1, PREFERRED_HEIGHT));
+        setOpaque(true);
+
+        MouseAdapter mouse = new KeyboardMouse();
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+    }
+
+    public void addPianoKeyListener(PianoKeyListener listener)
+    {
+        this.listeners.add(listener);
+    }
+
+    // Marks a key as pressed or released and repaints just that key; safe to call from any thread
+    public void setPressed(int keyNum, boolean down)
+    {
+        synchronized (this)
+        {
+            KeySet before = this.pressed;
+            this.pressed = down ? before.with(keyNum) : before.without(keyNum);
+            if (this.pressed == before)
+                { return; }
+        }
+        repaint(keyBounds(keyNum));
+    }
+
+    // Sets which keys have audio and repaints the ones that changed; call on the EDT
+    public void setAvailable(KeySet keys)
+    {
+        KeySet before = this.available;
+        this.available = keys;
+        for (Key key : this.keys)
+        {
+            int k = key.getKeyNum();
+            if (before.contains(k) != keys.contains(k))
+                { repaint(keyBounds(k)); }
+        }
+    }
+
+    public boolean isPressed(int keyNum)
+    {
+        return this.pressed.contains(keyNum);
+    }
+
+    // Returns the keys currently shown as pressed
+    public KeySet getPressed()
+    {
+        return this.pressed;
+    }
+
+    // Width of one white key at the current size
+    protected double whiteWidth()
+    {
+        return (getWidth() - 1) / (double) this.whiteCount;
+    }
+
+    // Returns the rectangle a key occupies at the current size
+    public Rectangle keyBounds(int keyNum)
+    {
+        double w = whiteWidth();
+        int i = this.whiteIndex[keyNum];
+        if (this.keys[keyNum - 1].getBlackKey())
+        {
+            double bw = w * BLACK_WIDTH;
+            int x = (int) Math.round((i + 1) * w - bw / 2);
+            return new Rectangle(x, 0, (int) Math.round(bw), (int) Math.round(getHeight() * BLACK_HEIGHT));
+        }
+        int x = (int) Math.round(i * w);
+        return new Rectangle(x, 0, (int) Math.round((i + 1) * w) - x, getHeight() - 1);
+    }
+
+    // Returns the key under a point, or 0 if none
+    public int keyAt(int x, int y)
+    {
+        if (x < 0 || y < 0 || y >= getHeight())
+            { return 0; }
+        double w = whiteWidth();
+        int i = (int) (x / w);
+        if (i >= this.whiteCount)
+            { return 0; }
+
+        if (y < getHeight() * BLACK_HEIGHT)
+        {
+            // A black key straddles each boundary, so only the neighbours on either side can be hit
+            double half = w * BLACK_WIDTH / 2;
+            double offset = x - i * w;
+            if (offset >= w - half && this.blackAfterWhite[i] != 0)
+                { return this.blackAfterWhite[i]; }
+            if (offset < half && i > 0 && this.blackAfterWhite[i - 1] != 0)
+                { return this.blackAfterWhite[i - 1]; }
+        }
+        return this.whiteKeyNums[i];
+    }
+
+    protected void paintComponent(Graphics g)
+    {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+            { clip = new Rectangle(0, 0, getWidth(), getHeight()); }
+        KeySet down = this.pressed;
+        KeySet ready = this.available;
+
+        // White keys first so the black keys are drawn over them
+        for (int pass = 0; pass < 2; pass++)
+        {
+            boolean black = pass == 1;
+            for (Key key : this.keys)
+            {
+                if (key.getBlackKey() != black)
+                    { continue; }
+                Rectangle r = keyBounds(key.getKeyNum());
+                if (!r.intersects(clip))
+                    { continue; }
+                boolean isDown = down.contains(key.getKeyNum());
+                if (isDown)
+                    { g.setColor(black ? PRESSED_BLACK : PRESSED_WHITE); }
+                else if (!ready.contains(key.getKeyNum()))
+                    { g.setColor(black ? UNLOADED_BLACK : UNLOADED_WHITE); }
+                else
+                    { g.setColor(black ? Color.BLACK : Color.WHITE); }
+                g.fillRect(r.x, r.y, r.width, r.height);
+                g.setColor(Color.DARK_GRAY);
+                g.drawRect(r.x, r.y, r.width, r.height);
+            }
+        }
+    }
+
+    // Tell listeners about a key going down or up
+    protected void fire(int keyNum, boolean down)
+    {
+        setPressed(keyNum, down);
+        for (PianoKeyListener listener : this.listeners)
+        {
+            if (down)
+                { listener.keyPressed(keyNum); }
+            else
+                { listener.keyReleased(keyNum); }
+        }
+    }
+
+    // Presses the key under the mouse, and slides from key to key while dragging
+    class KeyboardMouse extends MouseAdapter
+    {
+        public void mousePressed(MouseEvent e)
+        {
+            AudioMetrics.get().record(AudioMetrics.Stage.EVENT_DISPATCH, (System.currentTimeMillis() - e.getWhen()) * 1000000L);
+            mouseKey = keyAt(e.getX(), e.getY());
+            if (mouseKey != 0)
+                { fire(mouseKey, true); }
+        }
+
+        public void mouseDragged(MouseEvent e)
+        {
+            int key = keyAt(e.getX(), e.getY());
+            if (key == mouseKey)
+                { return; }
+            if (mouseKey != 0)
+                { fire(mouseKey, false); }
+            mouseKey = key;
+            if (key != 0)
+                { fire(key, true); }
+        }
+
+        public void mouseReleased(MouseEvent e)
+        {
+            if (mouseKey != 0)
+                { fire(mouseKey, false); }
+            mouseKey = 0;
+        }
+    }
+}
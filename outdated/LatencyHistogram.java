@@ -0,0 +1,124 @@
+/*
+ * Lock-free latency histogram with fixed log-linear buckets
+ * Each power of two is split into 8 sub-buckets, so any recorded value is reported within 12.5%
+ * Recording is a few atomic increments, safe to call from the render thread, the EDT and JMX readers at once
+ */
+
+import java.util.concurrent.atomic.*;
+
+public class LatencyHistogram implements LatencyHistogramMBean {
+    protected static final int SUB_BUCKET_BITS = 3;
+    protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    protected static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS; // Covers every positive long
+
+    protected final String stage;
+    protected final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    protected final AtomicLong count = new AtomicLong();
+    protected final AtomicLong total = new AtomicLong();
+    protected final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String stage)
+    {
+        this.stage = stage;
+    }
+
+    // Records one latency in nanoseconds; negative values count as zero
+    public void record(long nanos)
+    {
+        if (nanos < 0)
+            { nanos = 0; }
+        this.buckets.incrementAndGet(bucketOf(nanos));
+        this.count.incrementAndGet();
+        this.total.addAndGet(nanos);
+        long m;
+        while (nanos > (m = this.max.get()) && !this.max.compareAndSet(m, nanos)) { }
+    }
+
+    // Maps a value to its bucket: values below 8 get their own bucket, larger ones a sub-bucket of their power of two
+    static int bucketOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+            { return (int) value; }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Returns the largest value that falls into a bucket
+    static long upperBoundOf(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            { return bucket; }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    // Returns the latency in nanoseconds below which the given fraction (0-1) of recordings fall
+    public long percentile(double fraction)
+    {
+        long n = this.count.get();
+        if (n == 0)
+            { return 0; }
+        long target = (long) Math.ceil(fraction * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += this.buckets.get(i);
+            if (seen >= target)
+                { return Math.min(upperBoundOf(i), this.max.get()); }
+        }
+        return this.max.get();
+    }
+
+    public String getStage()
+    {
+        return this.stage;
+    }
+
+    public long getCount()
+    {
+        return this.count.get();
+    }
+
+    public double getMeanMicros()
+    {
+        long n = this.count.get();
+        return n == 0 ? 0 : this.total.get() / (double) n / 1000.0;
+    }
+
+    public double getP50Micros()
+    {
+        return percentile(0.50) / 1000.0;
+    }
+
+    public double getP90Micros()
+    {
+        return percentile(0.90) / 1000.0;
+    }
+
+    public double getP99Micros()
+    {
+        return percentile(0.99) / 1000.0;
+    }
+
+    public double getMaxMicros()
+    {
+        return this.max.get() / 1000.0;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+            { this.buckets.set(i, 0); }
+        this.count.set(0);
+        this.total.set(0);
+        this.max.set(0);
+    }
+
+    public String toString()
+    {
+        return String.format("%-16s count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus", this.stage, getCount(),
+                             getMeanMicros(), getP50Micros(), getP90Micros(), getP99Micros(), getMaxMicros());
+    }
+}
@@ -0,0 +1,14 @@
+/*
+ * JMX view of one LatencyHistogram; times are reported in microseconds
+ */
+
+public interface LatencyHistogramMBean {
+    String getStage();
+    long getCount();
+    double getMeanMicros();
+    double getP50Micros();
+    double getP90Micros();
+    double getP99Micros();
+    double getMaxMicros();
+    void reset();
+}
@@ -0,0 +1,181 @@
+/*
+ * Look-ahead peak limiter that keeps summed chords from clipping the 16-bit output
+ * The signal is delayed by the look-ahead, so the gain can start coming down before a peak arrives:
+ *      the gain each frame needs (ceiling / peak, at most 1) is held at its minimum over the look-ahead window,
+ *      recovers towards 1 no faster than the release time,
+ *      and is smoothed by a moving average as long as the window, which turns every gain drop into a ramp
+ * Because the average only covers gains at least as low as the peak needs, no output sample exceeds the ceiling
+ * Both channels share one gain so the stereo image does not shift; the look-ahead adds its length to output latency
+ */
+
+import java.util.Arrays;
+
+public class Limiter implements Effect {
+    public static final int DEFAULT_LOOKAHEAD = 88; // 2 ms at 44.1 kHz
+    protected static final double DEFAULT_RELEASE = 0.08; // Seconds for the gain to recover most of the way
+
+    protected final int lookahead; // Frames of delay
+    protected final int window; // Frames the held minimum and the average cover: lookahead + 1
+    protected final float [] delayLeft;
+    protected final float [] delayRight;
+    protected int delayPos;
+    protected final float [] minValues; // Monotonic queue of needed gains, oldest first, for the sliding minimum
+    protected final long [] minFrames; // Frame each queued gain belongs to
+    protected int minHead, minCount;
+    protected final float [] averaged; // Last window of released gains, for the moving average
+    protected int averagePos;
+    protected double averageSum;
+    protected float released = 1f; // Held gain after the release limit
+    protected long frame; // Frames processed since the last reset
+
+    protected volatile float ceiling;
+    protected volatile float releaseCoefficient;
+    protected volatile float minGain = 1f; // Lowest gain applied in the last block, for metering
+
+    public Limiter()
+    {
+        this(DEFAULT_LOOKAHEAD, -0.3, DEFAULT_RELEASE);
+    }
+
+    public Limiter(int lookahead, double ceilingDb, double releaseSeconds)
+    {
+        if (lookahead < 1)
+            { throw new IllegalArgumentException("lookahead must be at least 1 frame"); }
+        this.lookahead = lookahead;
+        this.window = lookahead + 1;
+        this.delayLeft = new float [lookahead];
+        this.delayRight = new float [lookahead];
+        this.minValues = new float [this.window];
+        this.minFrames = new long [this.window];
+        this.averaged = new float [this.window];
+        setCeiling(ceilingDb);
+        setRelease(releaseSeconds);
+        reset();
+    }
+
+    public String getName()
+    {
+        return "limiter";
+    }
+
+    // Highest output level in dB below full scale
+    public void setCeiling(double ceilingDb)
+    {
+        this.ceiling = (float) Math.pow(10, Math.min(0, ceilingDb) / 20);
+    }
+
+    public void setRelease(double seconds)
+    {
+        this.releaseCoefficient = (float) (1 - Math.exp(-1 / (Math.max(1e-3, seconds) * SampleBank.SAMPLE_RATE)));
+    }
+
+    public int getLatency()
+    {
+        return this.lookahead;
+    }
+
+    // Returns the deepest gain reduction in the last block in dB (0 when the limiter did nothing)
+    public double getGainReductionDb()
+    {
+        return 20 * Math.log10(this.minGain);
+    }
+
+    public void process(float [] left, float [] right, int offset, int frames)
+    {
+        float ceiling = this.ceiling;
+        float release = this.releaseCoefficient;
+        float lowest = 1f;
+        for (int i = offset; i < offset + frames; i++)
+        {
+            float l = left[i];
+            float r = right[i];
+            float peak = Math.max(Math.abs(l), Math.abs(r));
+            float needed = peak > ceiling ? ceiling / peak : 1f;
+
+            // Sliding minimum over the window: drop the expired gain first, so the ring always has room for the new
+            // one (with gains that keep rising nothing else leaves it), then the gains that can no longer be the minimum
+            if (this.minCount > 0 && this.minFrames[this.minHead] <= this.frame - this.window)
+            {
+                this.minHead = (this.minHead + 1) % this.window;
+                this.minCount--;
+            }
+            while (this.minCount > 0 && this.minValues[(this.minHead + this.minCount - 1) % this.window] >= needed)
+                { this.minCount--; }
+            int tail = (this.minHead + this.minCount) % this.window;
+            this.minValues[tail] = needed;
+            this.minFrames[tail] = this.frame;
+            this.minCount++;
+            float held = this.minValues[this.minHead];
+
+            this.released = Math.min(held, this.released + (1f - this.released) * release);
+            this.averageSum += this.released - this.averaged[this.averagePos];
+            this.averaged[this.averagePos] = this.released;
+            if (++this.averagePos == this.window)
+                { this.averagePos = 0; }
+            float gain = (float) Math.min(1.0, this.averageSum / this.window);
+            lowest = Math.min(lowest, gain);
+
+            left[i] = this.delayLeft[this.delayPos] * gain;
+            right[i] = this.delayRight[this.delayPos] * gain;
+            this.delayLeft[this.delayPos] = l;
+            this.delayRight[this.delayPos] = r;
+            if (++this.delayPos == this.lookahead)
+                { this.delayPos = 0; }
+            this.frame++;
+        }
+        // The running sum drifts by rounding; rebuilding it once a block keeps it exact
+        double sum = 0;
+        for (float g : this.averaged)
+            { sum += g; }
+        this.averageSum = sum;
+        this.minGain = lowest;
+    }
+
+    public void reset()
+    {
+        Arrays.fill(this.delayLeft, 0f);
+        Arrays.fill(this.delayRight, 0f);
+        Arrays.fill(this.averaged, 1f);
+        this.averageSum = this.window;
+        this.delayPos = 0;
+        this.averagePos = 0;
+        this.minHead = 0;
+        this.minCount = 0;
+        this.released = 1f;
+        this.frame = 0;
+        this.minGain = 1f;
+    }
+
+    // Checks the ceiling holds on a decaying bass (needed gains rising every frame, which fills the minimum queue)
+    // with transients on top; exits with status 1 if any output sample exceeds it
+    public static void main(String [] args)
+    {
+        Limiter limiter = new Limiter();
+        float ceiling = limiter.ceiling;
+        int frames = 44100 * 2;
+        float [] left = new float [frames];
+        float [] right = new float [frames];
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < frames; i++)
+        {
+            float bass = (float) (3.0 * Math.exp(-i / 20000.0) * Math.sin(2 * Math.PI * 55 * i / SampleBank.SAMPLE_RATE));
+            float spike = i % 2000 < 40 ? (float) (random.nextGaussian() * 1.5) : 0f;
+            left[i] = bass + spike;
+            right[i] = bass - spike;
+        }
+        float peak = 0f;
+        for (int done = 0; done < frames; done += AudioEngine.BLOCK_FRAMES)
+        {
+            int n = Math.min(AudioEngine.BLOCK_FRAMES, frames - done);
+            limiter.process(left, right, done, n);
+            for (int i = done; i < done + n; i++)
+                { peak = Math.max(peak, Math.max(Math.abs(left[i]), Math.abs(right[i]))); }
+        }
+        System.out.printf("peak %.5f, ceiling %.5f%n", peak, ceiling);
+        if (peak > ceiling + 1e-6f)
+        {
+            System.out.println("Error: limiter output exceeded its ceiling");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Reads a Standard MIDI File into NoteEvents timed in sample frames
+ * MIDI note numbers map onto the 88 keys with note 21 (A0) as key 1; notes outside the keyboard are dropped
+ * Tempo changes are applied while converting ticks so the result can be scheduled sample-accurately
+ */
+
+import java.io.*;
+import java.util.*;
+import javax.sound.midi.*;
+
+public class MidiSequence {
+    public static final int MIDI_NOTE_OFFSET = 20; // MIDI note number minus key number
+    protected static final int SET_TEMPO = 0x51;
+    protected static final double DEFAULT_TEMPO = 500000; // Microseconds per quarter note (120 bpm)
+
+    // Loads a MIDI file and returns its note events sorted by frame
+    public static List<NoteEvent> load(File file) throws IOException, InvalidMidiDataException
+    {
+        return toNoteEvents(MidiSystem.getSequence(file));
+    }
+
+    // Converts every note-on/off in a sequence to NoteEvents sorted by frame
+    public static List<NoteEvent> toNoteEvents(Sequence sequence)
+    {
+        List<MidiEvent> all = new ArrayList<>();
+        for (Track track : sequence.getTracks())
+        {
+            for (int i = 0; i < track.size(); i++)
+                { all.add(track.get(i)); }
+        }
+        all.sort((a, b) -> Long.compare(a.getTick(), b.getTick())); // Stable, so each track keeps its own order
+
+        List<NoteEvent> events = new ArrayList<>();
+        boolean ppq = sequence.getDivisionType() == Sequence.PPQ;
+        double tempo = DEFAULT_TEMPO;
+        long lastTick = 0;
+        double seconds = 0;
+        for (MidiEvent e : all)
+        {
+            long tick = e.getTick();
+            if (ppq)
+                { seconds += (tick - lastTick) * tempo / 1e6 / sequence.getResolution(); }
+            else
+                { seconds = tick / (sequence.getDivisionType() * sequence.getResolution()); }
+            lastTick = tick;
+
+            MidiMessage m = e.getMessage();
+            if (m instanceof MetaMessage && ((MetaMessage) m).getType() == SET_TEMPO)
+            {
+                byte [] d = ((MetaMessage) m).getData();
+                tempo = ((d[0] & 0xFF) << 16) | ((d[1] & 0xFF) << 8) | (d[2] & 0xFF);
+            }
+            else if (m instanceof ShortMessage)
+            {
+                NoteEvent note = toNoteEvent((ShortMessage) m, NoteEvent.toFrames(seconds));
+                if (note != null)
+                    { events.add(note); }
+            }
+        }
+        Collections.sort(events);
+        return events;
+    }
+
+    // Converts a channel message to a NoteEvent, or null if it is not a note on the keyboard
+    private static NoteEvent toNoteEvent(ShortMessage m, long frame)
+    {
+        int command = m.getCommand();
+        if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF)
+            { return null; }
+        int keyNum = m.getData1() - MIDI_NOTE_OFFSET;
+        if (keyNum < 1 || keyNum > 88)
+            { return null; }
+        int velocity = m.getData2();
+        boolean on = command == ShortMessage.NOTE_ON && velocity > 0; // Note-on with velocity 0 is a note-off
+        return new NoteEvent(frame, keyNum, on, on ? velocity : 0);
+    }
+}
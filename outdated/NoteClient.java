@@ -0,0 +1,124 @@
+/*
+ * Sends notes to a NoteServer so a front-end can play through an engine running in another process
+ * Messages are written as soon as they are made unless auto-flush is turned off, in which case they collect until
+ * flush(), e.g. so every note of a chord reaches the server in one packet and starts in the same block
+ * Sending never throws: a failed write closes the client and every later call returns false
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+public class NoteClient implements Closeable {
+    protected SocketChannel channel;
+    protected ByteBuffer out = ByteBuffer.allocate(3 * 256); // Messages waiting to be sent
+    protected boolean autoFlush = true;
+    protected volatile boolean connected;
+
+    public NoteClient(SocketAddress address) throws IOException
+    {
+        this.channel = SocketChannel.open(address);
+        if (address instanceof InetSocketAddress)
+            { this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true); }
+        this.connected = true;
+    }
+
+    // Connects to "port" or "host:port" on TCP, or to anything containing a '/' as a Unix-domain socket path
+    public static NoteClient connect(String target) throws IOException
+    {
+        if (target.indexOf('/') >= 0)
+            { return new NoteClient(UnixDomainSocketAddress.of(target)); }
+        int colon = target.lastIndexOf(':');
+        if (colon < 0)
+            { return new NoteClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(target))); }
+        return new NoteClient(new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1))));
+    }
+
+    public boolean noteOn(int keyNum, int velocity)
+    {
+        return send(0x90, keyNum + MidiSequence.MIDI_NOTE_OFFSET, Math.max(1, Math.min(velocity, 127)));
+    }
+
+    public boolean noteOff(int keyNum)
+    {
+        return send(0x80, keyNum + MidiSequence.MIDI_NOTE_OFFSET, 0);
+    }
+
+    public boolean setSustain(boolean down)
+    {
+        return send(0xB0, 64, down ? 127 : 0);
+    }
+
+    // When off, messages are only sent by flush() or when the buffer fills
+    public void setAutoFlush(boolean autoFlush)
+    {
+        this.autoFlush = autoFlush;
+    }
+
+    private synchronized boolean send(int status, int data1, int data2)
+    {
+        if (!this.connected)
+            { return false; }
+        if (this.out.remaining() < 3 && !flush())
+            { return false; }
+        this.out.put((byte) status).put((byte) data1).put((byte) data2);
+        return !this.autoFlush || flush();
+    }
+
+    // Writes every buffered message; returns false if the connection has been lost
+    public synchronized boolean flush()
+    {
+        if (!this.connected)
+            { return false; }
+        this.out.flip();
+        try {
+            while (this.out.hasRemaining())
+                { this.channel.write(this.out); }
+            return true;
+        }
+        catch (IOException e) {
+            close();
+            return false;
+        }
+        finally { this.out.clear(); }
+    }
+
+    public boolean isConnected()
+    {
+        return this.connected;
+    }
+
+    public void close()
+    {
+        this.connected = false;
+        try { this.channel.close(); }
+        catch (IOException e) { }
+    }
+
+    // Loopback test driver: NoteClient [target], plays a C major scale and chord through a running NoteServer
+    public static void main(String [] args) throws Exception
+    {
+        try (NoteClient client = connect(args.length > 0 ? args[0] : String.valueOf(NoteServer.DEFAULT_PORT)))
+        {
+            KeySet scale = Harmony.scale(40, Harmony.ScaleType.MAJOR, 1);
+            for (int k = scale.nextAbove(0); k != -1; k = scale.nextAbove(k))
+            {
+                client.noteOn(k, 100);
+                Thread.sleep(250);
+                client.noteOff(k);
+            }
+
+            List<Integer> chord = List.of(40, 44, 47, 52);
+            client.setAutoFlush(false);
+            for (int k : chord)
+                { client.noteOn(k, 100); }
+            client.flush();
+            Thread.sleep(1500);
+            for (int k : chord)
+                { client.noteOff(k); }
+            client.flush();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * A timed note event, the common currency between sequencers, renderers and recorders
+ * Times are in sample frames at SampleBank.SAMPLE_RATE
+ */
+
+public class NoteEvent implements Comparable<NoteEvent> {
+    protected final long frame; // When the event happens
+    protected final int keyNum; // Key number (1-88), or NoteQueue.SUSTAIN_PEDAL for the sustain pedal
+    protected final boolean noteOn; // True for key (or pedal) down, false for up
+    protected final int velocity; // 1-127 for note-ons
+
+    public NoteEvent(long frame, int keyNum, boolean noteOn, int velocity)
+    {
+        this.frame = frame;
+        this.keyNum = keyNum;
+        this.noteOn = noteOn;
+        this.velocity = velocity;
+    }
+
+    // Creates a note-on at a time given in seconds
+    public static NoteEvent on(double seconds, int keyNum, int velocity)
+    {
+        return new NoteEvent(toFrames(seconds), keyNum, true, velocity);
+    }
+
+    // Creates a note-off at a time given in seconds
+    public static NoteEvent off(double seconds, int keyNum)
+    {
+        return new NoteEvent(toFrames(seconds), keyNum, false, 0);
+    }
+
+    // Creates a sustain pedal press or lift at a time given in seconds
+    public static NoteEvent pedal(double seconds, boolean down)
+    {
+        return new NoteEvent(toFrames(seconds), NoteQueue.SUSTAIN_PEDAL, down, 0);
+    }
+
+    // Converts seconds to sample frames
+    public static long toFrames(double seconds)
+    {
+        return Math.round(seconds * SampleBank.SAMPLE_RATE);
+    }
+
+    public long getFrame()
+    {
+        return this.frame;
+    }
+
+    public int getKeyNum()
+    {
+        return this.keyNum;
+    }
+
+    public boolean isPedal()
+    {
+        return this.keyNum == NoteQueue.SUSTAIN_PEDAL;
+    }
+
+    public boolean isNoteOn()
+    {
+        return this.noteOn;
+    }
+
+    public int getVelocity()
+    {
+        return this.velocity;
+    }
+
+    // Returns velocity as a linear gain
+    public float getGain()
+    {
+        return this.velocity / 127f;
+    }
+
+    // Orders events by time, with note-offs before note-ons at the same frame
+    public int compareTo(NoteEvent other)
+    {
+        if (this.frame != other.frame)
+            { return Long.compare(this.frame, other.frame); }
+        return Boolean.compare(this.noteOn, other.noteOn);
+    }
+
+    public String toString()
+    {
+        if (isPedal())
+            { return "pedal " + (this.noteOn ? "down" : "up") + " @" + this.frame; }
+        return (this.noteOn ? "on " : "off ") + this.keyNum + " @" + this.frame + (this.noteOn ? " v" + this.velocity : "");
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Reads a session written by NoteRecorder back as timed note events, for playback or offline rendering
+ * Segments are read in order until one is missing; the earliest recorded command becomes time zero
+ * The engine drains its input queues one producer at a time, so records are not in time order; events come back sorted
+ * A tempo factor scales playback speed: 2 plays twice as fast, 0.5 at half speed
+ */
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+public class NoteLog {
+    // Reads every record in a session directory as events at the given tempo
+    public static List<NoteEvent> read(File directory, double tempo) throws IOException
+    {
+        if (tempo <= 0)
+            { throw new IllegalArgumentException("tempo must be positive"); }
+        long [] times = new long [1024]; // Nanoseconds since the session started
+        int [] commands = new int [1024];
+        int count = 0;
+        for (int index = 0; ; index++)
+        {
+            File file = NoteRecorder.segmentFile(directory, index);
+            if (!file.isFile())
+                { break; }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+            {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (segment.limit() < NoteRecorder.HEADER_SIZE || segment.getInt(0) != NoteRecorder.MAGIC)
+                    { throw new IOException("Not a note log segment: " + file); }
+                if (segment.getShort(4) != NoteRecorder.VERSION || segment.getShort(6) != NoteRecorder.RECORD_SIZE)
+                    { throw new IOException("Unsupported note log version in " + file); }
+
+                for (int p = NoteRecorder.HEADER_SIZE; p + NoteRecorder.RECORD_SIZE <= segment.limit(); p += NoteRecorder.RECORD_SIZE)
+                {
+                    int command = segment.getInt(p + 8);
+                    if (segment.getInt(p + 12) != ~command)
+                        { break; } // End of what was written to this segment
+                    if (count == times.length)
+                    {
+                        times = Arrays.copyOf(times, count * 2);
+                        commands = Arrays.copyOf(commands, count * 2);
+                    }
+                    times[count] = segment.getLong(p);
+                    commands[count++] = command;
+                }
+            }
+        }
+
+        // Replay starts at the earliest command, which can be stamped just before the session if it was queued then
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++)
+            { first = Math.min(first, times[i]); }
+        List<NoteEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            long frame = Math.round((times[i] - first) / tempo * SampleBank.SAMPLE_RATE / 1e9);
+            events.add(new NoteEvent(frame, commands[i] & 0xFF, (commands[i] & 0x100) != 0, commands[i] >>> 9));
+        }
+        Collections.sort(events); // At the same frame note-offs come first, so a restruck key is released then played
+        return events;
+    }
+
+    // Replays a recorded session: NoteLog <session directory> [-tempo factor] [-wav output.wav]
+    // Without -wav the session is played through the sound card
+    public static void main(String [] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: NoteLog <session directory> [-tempo factor] [-wav output.wav]");
+            return;
+        }
+        double tempo = 1.0;
+        File wav = null;
+        for (int i = 1; i + 1 < args.length; i += 2)
+        {
+            if (args[i].equals("-tempo"))
+                { tempo = Double.parseDouble(args[i + 1]); }
+            else if (args[i].equals("-wav"))
+                { wav = new File(args[i + 1]); }
+        }
+
+        List<NoteEvent> events = read(new File(args[0]), tempo);
+        System.out.println("Read " + events.size() + " events from " + args[0]);
+        SampleSource samples = new SampleBank(Keyboard.createKeys());
+        if (wav != null)
+        {
+            new OfflineRenderer(samples).render(events, wav);
+            System.out.println("Wrote " + wav);
+            return;
+        }
+
+        AudioEngine engine = new AudioEngine(samples);
+        engine.start();
+        NoteSequencer sequencer = new NoteSequencer(events);
+        engine.play(sequencer);
+        while (engine.getSequencer() == sequencer || engine.getActiveVoiceCount() > 0)
+            { Thread.sleep(100); }
+        engine.stop();
+    }
+}
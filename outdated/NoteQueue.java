@@ -0,0 +1,132 @@
+/*
+ * Single-producer/single-consumer lock-free ring of compact note commands
+ * A command is a key number, on/off flag and velocity packed into an int, plus a nanoTime timestamp
+ * The producer (e.g. the Swing EDT) never blocks: when the ring is full the command is rejected and counted
+ * The consumer (the audio render thread) drains everything queued at the start of each block
+ * Exactly one thread may offer and exactly one thread may drain; use one queue per producer
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NoteQueue {
+    // Receives drained commands without any objects being created
+    public interface Consumer {
+        void onNote(int keyNum, boolean noteOn, int velocity, long nanos);
+    }
+
+    public static final int SUSTAIN_PEDAL = 0; // Key number of pedal commands: on presses the sustain pedal, off lifts it
+
+    protected final int capacity;
+    protected final int mask;
+    protected final int [] commands;
+    protected final long [] times;
+    protected final AtomicLong head = new AtomicLong(); // Next slot to read, advanced by the consumer
+    protected final AtomicLong tail = new AtomicLong(); // Next slot to write, advanced by the producer
+    protected long cachedHead; // Producer's last view of head, refreshed only when the ring looks full
+
+    // Producer-side statistics
+    protected volatile long accepted;
+    protected volatile long rejected;
+    protected volatile int highWater; // Deepest the queue has been
+    protected volatile boolean closed; // Set by the producer after its last offer
+
+    // Creates a queue; capacity is rounded up to a power of two
+    public NoteQueue(int capacity)
+    {
+        if (capacity < 1)
+            { throw new IllegalArgumentException("capacity must be at least 1"); }
+        int size = 1;
+        while (size < capacity)
+            { size <<= 1; }
+        this.capacity = size;
+        this.mask = this.capacity - 1;
+        this.commands = new int [this.capacity];
+        this.times = new long [this.capacity];
+    }
+
+    // Queues a command; returns false without blocking if the ring is full
+    public boolean offer(int keyNum, boolean noteOn, int velocity, long nanos)
+    {
+        long t = this.tail.get();
+        if (t - this.cachedHead >= this.capacity)
+        {
+            this.cachedHead = this.head.get();
+            if (t - this.cachedHead >= this.capacity)
+            {
+                this.rejected++;
+                return false;
+            }
+        }
+        int slot = (int) t & this.mask;
+        this.commands[slot] = encode(keyNum, noteOn, velocity);
+        this.times[slot] = nanos;
+        this.tail.lazySet(t + 1); // Publishes the slot writes above to the consumer
+
+        this.accepted++;
+        int depth = (int) (t + 1 - this.cachedHead);
+        if (depth > this.highWater)
+            { this.highWater = depth; }
+        return true;
+    }
+
+    // Hands every queued command to the consumer in order; returns how many were drained
+    public int drain(Consumer consumer)
+    {
+        long h = this.head.get();
+        long t = this.tail.get();
+        for (long i = h; i < t; i++)
+        {
+            int slot = (int) i & this.mask;
+            int command = this.commands[slot];
+            consumer.onNote(command & 0xFF, (command & 0x100) != 0, command >>> 9, this.times[slot]);
+        }
+        this.head.lazySet(t); // Frees the slots for the producer
+        return (int) (t - h);
+    }
+
+    // Packs a command: key in bits 0-7, on/off in bit 8, velocity in bits 9-15
+    static int encode(int keyNum, boolean noteOn, int velocity)
+    {
+        return (keyNum & 0xFF) | (noteOn ? 0x100 : 0) | ((velocity & 0x7F) << 9);
+    }
+
+    // Marks the queue as finished; the consumer can drop it once it has drained what is left
+    public void close()
+    {
+        this.closed = true;
+    }
+
+    public boolean isClosed()
+    {
+        return this.closed;
+    }
+
+    // Returns the number of commands waiting
+    public int size()
+    {
+        return (int) (this.tail.get() - this.head.get());
+    }
+
+    public int getCapacity()
+    {
+        return this.capacity;
+    }
+
+    // Returns how many commands were queued
+    public long getAccepted()
+    {
+        return this.accepted;
+    }
+
+    // Returns how many commands were dropped because the ring was full
+    public long getRejected()
+    {
+        return this.rejected;
+    }
+
+    // Returns the deepest the queue has been
+    public int getHighWater()
+    {
+        return this.highWater;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Records every note command the AudioEngine receives into an append-only log of memory-mapped segment files
+ * The render thread only offers each command to a lock-free NoteQueue, so recording never blocks the event path;
+ * a background thread drains that queue into the current segment
+ * Segments are named segment-0000.klog, segment-0001.klog, ... in the session directory, and a new one is started when
+ * the current one is full or has been open for the rollover period, so an all-day session never needs one huge mapping
+ * Segment layout (big-endian):
+ *      header, 32 bytes:   "KLOG", version (short), record size (short), segment index (int), 4 unused bytes,
+ *                          session start (epoch ms, long), 8 unused bytes
+ *      records, 16 bytes:  nanoseconds since the session started (long), command (int, NoteQueue encoding),
+ *                          ~command (int)
+ * Segment files are created at full size, so the log ends at the first record whose check word does not match;
+ * a session cut short by a crash reads back up to the last record that reached the file
+ * If the next segment cannot be created the recorder stops: what was logged so far stays readable, later commands are
+ * dropped, and close() reports the error
+ */
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class NoteRecorder implements Closeable {
+    public static final int MAGIC = 0x4B4C4F47; // "KLOG"
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_SIZE = 16;
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 18; // 4 MB segments
+    public static final long DEFAULT_ROLLOVER_MS = TimeUnit.HOURS.toMillis(1);
+    protected static final int QUEUE_SIZE = 4096; // Commands buffered between the render thread and the writer
+    protected static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // Writer sleep when the queue is empty
+
+    protected final File directory;
+    protected final int segmentRecords;
+    protected final long rolloverMillis;
+    protected final long startMillis = System.currentTimeMillis();
+    protected final long startNanos = System.nanoTime();
+    protected final NoteQueue queue = new NoteQueue(QUEUE_SIZE);
+    protected final Thread writer;
+    protected volatile boolean running = true;
+    protected volatile IOException error; // Why recording stopped early, if it did
+
+    // Written only by the writer thread
+    protected FileChannel channel;
+    protected MappedByteBuffer segment;
+    protected int segmentIndex = -1;
+    protected int segmentUsed; // Records in the current segment
+    protected long segmentOpened; // When the current segment was started, epoch ms
+    protected volatile long recorded;
+
+    // Starts a session in a new directory with the default segment size and rollover period
+    public NoteRecorder(File directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_RECORDS, DEFAULT_ROLLOVER_MS);
+    }
+
+    public NoteRecorder(File directory, int segmentRecords, long rolloverMillis) throws IOException
+    {
+        if (segmentRecords < 1)
+            { throw new IllegalArgumentException("segmentRecords must be at least 1"); }
+        Files.createDirectories(directory.toPath());
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.rolloverMillis = rolloverMillis;
+        nextSegment();
+
+        this.writer = new Thread(this::write, "note-recorder");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Records a command without blocking; call from one thread only (the engine's render thread)
+    // A command that finds the queue full is dropped and counted by getDropped()
+    public void record(int keyNum, boolean noteOn, int velocity, long nanos)
+    {
+        if (this.error == null)
+            { this.queue.offer(keyNum, noteOn, velocity, nanos); }
+    }
+
+    // Writer thread: moves queued commands into the mapped segments until closed
+    private void write()
+    {
+        NoteQueue.Consumer append = this::append;
+        while (this.running && this.error == null)
+        {
+            if (this.queue.drain(append) == 0)
+                { LockSupport.parkNanos(IDLE_NANOS); }
+        }
+        this.queue.drain(append);
+    }
+
+    private void append(int keyNum, boolean noteOn, int velocity, long nanos)
+    {
+        if (this.error != null)
+            { return; }
+        try {
+            if (this.segmentUsed == this.segmentRecords
+                || System.currentTimeMillis() - this.segmentOpened >= this.rolloverMillis)
+                { nextSegment(); }
+        }
+        catch (IOException e) {
+            // The old segment may already be closed, so nothing more can be written safely
+            this.error = e;
+            AudioMetrics.get().failure();
+            System.out.println("Error: Recording stopped, could not start a new log segment (" + e.getMessage() + ")");
+            return;
+        }
+        int command = NoteQueue.encode(keyNum, noteOn, velocity);
+        int p = HEADER_SIZE + this.segmentUsed * RECORD_SIZE;
+        this.segment.putLong(p, nanos - this.startNanos);
+        this.segment.putInt(p + 8, command);
+        this.segment.putInt(p + 12, ~command);
+        this.segmentUsed++;
+        this.recorded++;
+    }
+
+    // Flushes and closes the current segment, if any, and maps the next one
+    private void nextSegment() throws IOException
+    {
+        closeSegment();
+        this.segmentIndex++;
+        File file = segmentFile(this.directory, this.segmentIndex);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        this.segment = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) this.segmentRecords * RECORD_SIZE);
+        this.segment.putInt(0, MAGIC);
+        this.segment.putShort(4, VERSION);
+        this.segment.putShort(6, (short) RECORD_SIZE);
+        this.segment.putInt(8, this.segmentIndex);
+        this.segment.putLong(16, this.startMillis);
+        this.segmentUsed = 0;
+        this.segmentOpened = System.currentTimeMillis();
+    }
+
+    private void closeSegment() throws IOException
+    {
+        if (this.channel == null)
+            { return; }
+        if (this.segment != null)
+            { this.segment.force(); }
+        this.segment = null;
+        this.channel.close();
+        this.channel = null;
+    }
+
+    // Returns the file holding one segment of a session
+    public static File segmentFile(File directory, int index)
+    {
+        return new File(directory, String.format("segment-%04d.klog", index));
+    }
+
+    // Stops recording after writing everything already queued, and flushes the log to disk
+    public void close() throws IOException
+    {
+        this.running = false;
+        try { this.writer.join(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        closeSegment();
+        if (this.error != null)
+            { throw new IOException("Recording stopped early", this.error); }
+    }
+
+    // Returns why recording stopped before close, or null while it is working
+    public IOException getError()
+    {
+        return this.error;
+    }
+
+    public File getDirectory()
+    {
+        return this.directory;
+    }
+
+    // Returns how many commands have been written to the log
+    public long getRecorded()
+    {
+        return this.recorded;
+    }
+
+    // Returns how many commands were lost because the writer fell behind
+    public long getDropped()
+    {
+        return this.queue.getRejected();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Feeds a fixed list of NoteEvents to the AudioEngine's render thread
+ * Event frames are relative to the moment playback starts; the engine asks for the offset of the next due event
+ * inside each block and applies it at that exact sample, so timing never depends on timers or thread scheduling
+ * Only the render thread touches a sequencer once it has been handed to the engine
+ */
+
+import java.util.*;
+
+public class NoteSequencer {
+    protected NoteEvent [] events; // Sorted by frame
+    protected int cursor; // Next event to deliver
+    protected long origin = -1; // Engine frame at which playback started, -1 until started
+
+    public NoteSequencer(List<NoteEvent> events)
+    {
+        this.events = events.toArray(new NoteEvent [0]);
+        Arrays.sort(this.events);
+    }
+
+    // Anchors the sequence to the engine clock
+    public void start(long engineFrame)
+    {
+        this.origin = engineFrame;
+        this.cursor = 0;
+    }
+
+    public boolean isStarted()
+    {
+        return this.origin >= 0;
+    }
+
+    // Returns true when every event has been delivered
+    public boolean isFinished()
+    {
+        return this.cursor >= this.events.length;
+    }
+
+    // Returns the offset within a block starting at blockFrame of the next due event, or blockFrames if none is due
+    public int nextEventOffset(long blockFrame, int blockFrames)
+    {
+        if (isFinished())
+            { return blockFrames; }
+        long due = this.origin + this.events[this.cursor].getFrame() - blockFrame;
+        if (due >= blockFrames)
+            { return blockFrames; }
+        return (int) Math.max(0, due);
+    }
+
+    // Returns the next event and advances past it
+    public NoteEvent next()
+    {
+        return this.events[this.cursor++];
+    }
+
+    // Returns the length of the sequence in frames
+    public long getLength()
+    {
+        return this.events.length == 0 ? 0 : this.events[this.events.length - 1].getFrame();
+    }
+}
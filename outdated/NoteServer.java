@@ -0,0 +1,340 @@
+/*
+ * Headless note server that lets several front-ends share one AudioEngine over local sockets
+ * Clients connect over localhost TCP or a Unix-domain socket and send MIDI-style messages:
+ *      0x9n note velocity      note-on (velocity 0 means note-off, as in MIDI)
+ *      0x8n note velocity      note-off
+ *      0xBn 64 value           sustain pedal, down when value >= 64
+ * where note is a MIDI note number (21 = A0 ... 108 = C8) and the channel n is ignored; other messages are skipped
+ * Every client gets its own NoteQueue into the engine, so clients never contend with each other, and everything a
+ * client sent since the last block is applied together at the start of the next one
+ * Each client is served by its own thread: a virtual thread when the JVM has them, a platform thread otherwise
+ * A client that outruns the engine is slowed down, by not reading its socket while its queue is full, rather than
+ * having commands dropped straight away
+ * Keys and the pedal a client leaves down when it disconnects are released for it
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NoteServer implements Closeable {
+    public static final int DEFAULT_PORT = 7777;
+    protected static final int READ_BUFFER = 4096; // Bytes read from a client at a time
+    protected static final int FULL_WAIT_MS = 20; // How long a client waits for room in a full queue before dropping a command
+
+    protected AudioEngine engine;
+    protected ThreadFactory clientThreads = VirtualThreads.factory("note-client-");
+    protected volatile boolean running = true;
+    protected List<ServerSocketChannel> listeners = new CopyOnWriteArrayList<>();
+    protected List<Path> socketFiles = new CopyOnWriteArrayList<>(); // Unix socket files to delete on close
+    protected Set<Client> clients = ConcurrentHashMap.newKeySet();
+    protected AtomicInteger clientCount = new AtomicInteger(); // Numbers clients in the order they connected
+
+    public NoteServer(AudioEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    // Starts accepting clients on a TCP address or a UnixDomainSocketAddress; returns the address actually bound
+    public SocketAddress listen(SocketAddress address) throws IOException
+    {
+        ServerSocketChannel server;
+        if (address instanceof UnixDomainSocketAddress)
+        {
+            Path path = ((UnixDomainSocketAddress) address).getPath();
+            Files.deleteIfExists(path); // Left behind by a server that did not shut down cleanly
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(address);
+            this.socketFiles.add(path);
+        }
+        else
+        {
+            server = ServerSocketChannel.open();
+            server.bind(address);
+        }
+        this.listeners.add(server);
+
+        Thread acceptor = new Thread(() -> accept(server), "note-server-" + server.getLocalAddress());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server.getLocalAddress();
+    }
+
+    // Hands every new connection to its own client thread until the server is closed
+    private void accept(ServerSocketChannel server)
+    {
+        while (this.running)
+        {
+            try {
+                SocketChannel channel = server.accept();
+                if (channel.getLocalAddress() instanceof InetSocketAddress)
+                    { channel.setOption(StandardSocketOptions.TCP_NODELAY, true); }
+                Client client = new Client(channel, "client-" + this.clientCount.incrementAndGet());
+                this.clients.add(client);
+                this.clientThreads.newThread(client).start();
+            }
+            catch (ClosedChannelException e) { return; }
+            catch (IOException e) { System.out.println("Error: Could not accept a client: " + e.getMessage()); }
+        }
+    }
+
+    // Stops accepting, disconnects every client and removes Unix socket files
+    public void close() throws IOException
+    {
+        this.running = false;
+        for (ServerSocketChannel server : this.listeners)
+            { server.close(); }
+        for (Client client : this.clients)
+            { client.channel.close(); }
+        for (Path path : this.socketFiles)
+            { Files.deleteIfExists(path); }
+    }
+
+    // Returns the clients connected right now
+    public List<Client> getClients()
+    {
+        return new ArrayList<>(this.clients);
+    }
+
+    // Updates every client's event rate since the previous report and describes each one on its own line
+    public String report()
+    {
+        StringBuilder text = new StringBuilder();
+        List<Client> connected = getClients();
+        connected.sort((a, b) -> a.name.compareTo(b.name));
+        for (Client client : connected)
+        {
+            client.updateRate();
+            text.append(String.format("%s %s: %.1f events/s, %d events, %d rejected%n", client.name, client.remote,
+                client.getRate(), client.getEvents(), client.getRejected()));
+        }
+        return text.toString();
+    }
+
+    // Number of bytes in a message starting with the given status byte
+    static int messageLength(int status)
+    {
+        switch (status & 0xF0)
+        {
+            case 0xC0: case 0xD0: return 2;
+            case 0xF0: return 1;
+            default: return 3;
+        }
+    }
+
+    // One connected front-end, read by its own thread and feeding its own queue into the engine
+    public class Client implements Runnable
+    {
+        protected final SocketChannel channel;
+        protected final String name;
+        protected final String remote;
+        protected final NoteQueue queue;
+        protected final boolean [] held = new boolean [Keyboard.NUMBER_KEYS + 1]; // Keys this client has down
+        protected boolean pedal;
+        protected volatile long events; // Commands passed to the engine
+        protected volatile long rejected; // Commands dropped because the queue was full
+        protected long reportedEvents; // Event count and time at the previous report
+        protected long reportedNanos = System.nanoTime();
+        protected volatile double rate;
+
+        Client(SocketChannel channel, String name) throws IOException
+        {
+            this.channel = channel;
+            this.name = name;
+            SocketAddress address = channel.getRemoteAddress();
+            this.remote = address instanceof InetSocketAddress ? address.toString() : "unix";
+            this.queue = engine.createInputQueue();
+        }
+
+        public void run()
+        {
+            ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);
+            try {
+                while (this.channel.read(in) >= 0)
+                {
+                    in.flip();
+                    parse(in, System.nanoTime());
+                    in.compact();
+                }
+            }
+            catch (IOException e) { } // Closed by the client or by close()
+            finally {
+                releaseAll();
+                clients.remove(this);
+                try { this.channel.close(); }
+                catch (IOException e) { }
+            }
+        }
+
+        // Applies every complete message in the buffer, all stamped with the time they were read
+        private void parse(ByteBuffer in, long nanos)
+        {
+            while (in.hasRemaining())
+            {
+                int status = in.get(in.position()) & 0xFF;
+                if (status < 0x80)
+                {
+                    in.get(); // Data byte outside a message we understand, skip until the next status byte
+                    continue;
+                }
+                int length = messageLength(status);
+                if (in.remaining() < length)
+                    { return; }
+                in.get();
+                int data1 = length > 1 ? in.get() & 0x7F : 0;
+                int data2 = length > 2 ? in.get() & 0x7F : 0;
+
+                int keyNum = data1 - MidiSequence.MIDI_NOTE_OFFSET;
+                switch (status & 0xF0)
+                {
+                    case 0x90: note(keyNum, data2 > 0, data2, nanos); break;
+                    case 0x80: note(keyNum, false, 0, nanos); break;
+                    case 0xB0:
+                        if (data1 == 64)
+                            { sustain(data2 >= 64, nanos); }
+                        break;
+                    default: break;
+                }
+            }
+        }
+
+        private void note(int keyNum, boolean noteOn, int velocity, long nanos)
+        {
+            if (keyNum < 1 || keyNum > Keyboard.NUMBER_KEYS)
+                { return; }
+            if (offer(keyNum, noteOn, velocity, nanos))
+                { this.held[keyNum] = noteOn; }
+        }
+
+        private void sustain(boolean down, long nanos)
+        {
+            if (offer(NoteQueue.SUSTAIN_PEDAL, down, 0, nanos))
+                { this.pedal = down; }
+        }
+
+        // Queues a command, waiting briefly for the render thread to make room if the queue is full
+        private boolean offer(int keyNum, boolean noteOn, int velocity, long nanos)
+        {
+            for (int waited = 0; !this.queue.offer(keyNum, noteOn, velocity, nanos); waited++)
+            {
+                if (waited == FULL_WAIT_MS)
+                {
+                    this.rejected++;
+                    return false;
+                }
+                try { Thread.sleep(1); }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            }
+            this.events++;
+            return true;
+        }
+
+        // Lets go of everything this client left down and hands its queue back to the engine
+        private void releaseAll()
+        {
+            long nanos = System.nanoTime();
+            for (int k = 1; k < this.held.length; k++)
+            {
+                if (this.held[k])
+                    { note(k, false, 0, nanos); }
+            }
+            if (this.pedal)
+                { sustain(false, nanos); }
+            this.queue.close(); // The engine drops the queue after playing what is left in it
+        }
+
+        // Computes the event rate since the previous call
+        void updateRate()
+        {
+            long now = System.nanoTime();
+            long count = this.events;
+            this.rate = (count - this.reportedEvents) * 1e9 / Math.max(now - this.reportedNanos, 1);
+            this.reportedEvents = count;
+            this.reportedNanos = now;
+        }
+
+        public String getName()
+        {
+            return this.name;
+        }
+
+        // Returns the events per second measured at the last report
+        public double getRate()
+        {
+            return this.rate;
+        }
+
+        public long getEvents()
+        {
+            return this.events;
+        }
+
+        public long getRejected()
+        {
+            return this.rejected;
+        }
+
+        public NoteQueue getQueue()
+        {
+            return this.queue;
+        }
+    }
+
+    // Runs the server: NoteServer [-port n] [-unix path] [-report seconds] [-record directory]
+    public static void main(String [] args) throws Exception
+    {
+        int port = DEFAULT_PORT;
+        String unixPath = null;
+        int reportSeconds = 10;
+        String recordPath = null;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "-port": port = Integer.parseInt(args[i + 1]); break;
+                case "-unix": unixPath = args[i + 1]; break;
+                case "-report": reportSeconds = Integer.parseInt(args[i + 1]); break;
+                case "-record": recordPath = args[i + 1]; break;
+                default:
+                    System.out.println("Usage: NoteServer [-port n] [-unix path] [-report seconds] [-record directory]");
+                    return;
+            }
+        }
+
+        AudioEngine engine = Keyboard.createEngine(new SampleBank(Keyboard.createKeys()));
+        if (!engine.isRunning())
+            { return; }
+
+        NoteRecorder recorder = recordPath == null ? null : new NoteRecorder(new File(recordPath));
+        engine.setRecorder(recorder);
+
+        NoteServer server = new NoteServer(engine);
+        System.out.println("Listening on " + server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+        if (unixPath != null)
+            { System.out.println("Listening on " + server.listen(UnixDomainSocketAddress.of(unixPath))); }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                if (recorder != null)
+                {
+                    engine.detachRecorder();
+                    recorder.close();
+                }
+            }
+            catch (IOException e) { }
+        }));
+
+        while (true)
+        {
+            Thread.sleep(reportSeconds * 1000L);
+            System.out.print(server.report());
+            System.out.print(engine.getEffects().report());
+            System.out.print(engine.getBufferTuner().report());
+        }
+    }
+}
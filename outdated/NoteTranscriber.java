@@ -0,0 +1,594 @@
+/*
+ * Transcribes a WAV recording back onto the 88 keys as timed note events, and checks the tuning of PianoSamples
+ *
+ * The recording is streamed through Hann-windowed FFTs (WINDOW_SIZE frames, advancing HOP frames) in batches of
+ * windows that are analyzed in parallel on a fork-join pool, a round at a time, so memory use does not grow with
+ * the length of the recording; each batch slot keeps its read buffer, FFT arrays and results for the whole run
+ * Per window, spectral peaks are picked and refined by parabolic interpolation, then resolved to keys greedily:
+ * the key whose harmonics explain the most peak energy is taken, the part of each shared peak it accounts for
+ * (judged from its neighbouring partials) is removed, and the search repeats until what is left is too weak
+ * Key detections are then tracked in time order: a key held for MIN_ON_WINDOWS becomes a note-on, one missing for
+ * MIN_OFF_WINDOWS a note-off, and a sharp rise in level while held counts as the key being struck again
+ * Event times are in SampleBank.SAMPLE_RATE frames whatever the recording's own rate; timing is good to about a HOP
+ *
+ * Usage: java NoteTranscriber <recording.wav> [-csv notes.csv]
+ *        java NoteTranscriber -verify [tolerance cents]   (run from the project root so ./PianoSamples resolves)
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class NoteTranscriber {
+    public static final int WINDOW_SIZE = 8192; // About 5 Hz per bin at 44.1 kHz
+    public static final int HOP = 1024; // Frames between windows, about 23 ms
+    protected static final int BATCH_WINDOWS = 128; // Windows analyzed by one task
+    protected static final int MAX_PEAKS = 256; // Strongest spectral peaks kept per window
+    protected static final int MAX_HARMONIC = 6; // Partials matched against each key
+    protected static final int MAX_NOTES = 10; // Keys resolved per window
+    protected static final double TOLERANCE = 0.4; // Semitones a partial may sit from its key, allows for stretch
+    protected static final float PEAK_FLOOR = 1e-3f; // Peaks below this fraction of the window's loudest are ignored
+    protected static final float SILENCE = 3e-4f; // Partial amplitude (about -70 dBFS) below which nothing is played
+    protected static final float ACCEPT_RATIO = 0.35f; // A further key needs this fraction of the first key's strength
+    protected static final int MIN_ON_WINDOWS = 2;
+    protected static final int MIN_OFF_WINDOWS = 8;
+    protected static final float RESTRIKE_RATIO = 4f; // Level rise over one window length that counts as a new strike
+    protected static final double DYNAMIC_RANGE_DB = 48; // Partial levels from full scale down to velocity 1
+    protected static final int TUNING_SIZE = 65536; // FFT size for tuning checks, about 0.7 Hz per bin
+
+    protected ForkJoinPool pool;
+    protected final Fft fft = new Fft(WINDOW_SIZE);
+    protected final float [] window = Fft.hann(WINDOW_SIZE);
+
+    public NoteTranscriber()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public NoteTranscriber(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    // Working arrays for one batch, reused every round
+    private static class Workspace
+    {
+        final ByteBuffer bytes;
+        final float [] mono;
+        final float [] re = new float [WINDOW_SIZE];
+        final float [] im = new float [WINDOW_SIZE];
+        final float [] first = new float [WINDOW_SIZE / 2 + 1];
+        final float [] second = new float [WINDOW_SIZE / 2 + 1];
+        final float [] peakKey = new float [MAX_PEAKS]; // Peak frequency as a fractional key number
+        final float [] peakLevel = new float [MAX_PEAKS]; // Peak amplitude, reduced as keys claim it
+        final float [] salience = new float [Keyboard.NUMBER_KEYS + 1];
+        final float [] partials = new float [MAX_HARMONIC + 2];
+        final int [] partialPeaks = new int [MAX_HARMONIC + 2];
+        final float [][] levels = new float [BATCH_WINDOWS][Keyboard.NUMBER_KEYS + 1]; // Per window, 0 if not played
+        int windows; // Windows in the current batch
+
+        Workspace(int channels)
+        {
+            int span = (BATCH_WINDOWS - 1) * HOP + WINDOW_SIZE;
+            this.bytes = ByteBuffer.allocateDirect(span * channels * 2).order(ByteOrder.LITTLE_ENDIAN);
+            this.mono = new float [span];
+        }
+    }
+
+    // The PCM data of a 16-bit WAV file
+    private static class Recording
+    {
+        FileChannel channel;
+        long dataOffset;
+        long frames;
+        int channels;
+        float sampleRate;
+    }
+
+    // Transcribes a whole recording into note-on and note-off events in time order
+    public List<NoteEvent> transcribe(File wav) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(wav.toPath(), StandardOpenOption.READ))
+        {
+            Recording recording = open(channel);
+            long windows = recording.frames < WINDOW_SIZE ? 0 : (recording.frames - WINDOW_SIZE) / HOP + 1;
+            int batches = (int) ((windows + BATCH_WINDOWS - 1) / BATCH_WINDOWS);
+            int slots = Math.max(1, this.pool.getParallelism() * 2);
+            Workspace [] workspaces = new Workspace [Math.min(slots, Math.max(1, batches))];
+            for (int i = 0; i < workspaces.length; i++)
+                { workspaces[i] = new Workspace(recording.channels); }
+
+            Tracker tracker = new Tracker(recording.sampleRate);
+            for (int first = 0; first < batches; first += workspaces.length)
+            {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (int b = first; b < Math.min(first + workspaces.length, batches); b++)
+                {
+                    Workspace ws = workspaces[b - first];
+                    long start = (long) b * BATCH_WINDOWS;
+                    int count = (int) Math.min(BATCH_WINDOWS, windows - start);
+                    tasks.add(this.pool.submit(() -> { analyze(recording, start, count, ws); return null; }));
+                }
+                for (int t = 0; t < tasks.size(); t++)
+                {
+                    try { tasks.get(t).get(); }
+                    catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException(); }
+                    catch (ExecutionException e) {
+                        if (e.getCause() instanceof IOException)
+                            { throw (IOException) e.getCause(); }
+                        throw new IOException("Transcription failed", e.getCause());
+                    }
+                    Workspace ws = workspaces[t];
+                    for (int w = 0; w < ws.windows; w++)
+                        { tracker.next(ws.levels[w]); }
+                }
+            }
+            return tracker.finish();
+        }
+    }
+
+    // Reads the header of a 16-bit PCM WAV file
+    private static Recording open(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate((int) Math.min(channel.size(), 1 << 16));
+        channel.read(header, 0);
+        header.flip();
+        WavFile wav = WavFile.parse(header);
+        if (wav.bitsPerSample != 16)
+            { throw new IOException("Only 16-bit PCM recordings can be transcribed"); }
+        Recording recording = new Recording();
+        recording.channel = channel;
+        recording.dataOffset = wav.getDataOffset();
+        recording.channels = wav.channels;
+        recording.sampleRate = wav.sampleRate;
+        // The header copy is cut short, so take the data size from the chunk itself, and trust the file over it
+        long declared = header.order(ByteOrder.LITTLE_ENDIAN).getInt(wav.getDataOffset() - 4) & 0xFFFFFFFFL;
+        long length = Math.min(declared, channel.size() - recording.dataOffset);
+        recording.frames = length / (2L * recording.channels);
+        return recording;
+    }
+
+    // Reads and analyzes count windows starting at window start into ws.levels
+    private void analyze(Recording recording, long start, int count, Workspace ws) throws IOException
+    {
+        int frames = (count - 1) * HOP + WINDOW_SIZE;
+        ByteBuffer bytes = ws.bytes;
+        bytes.clear().limit(frames * recording.channels * 2);
+        long position = recording.dataOffset + start * HOP * recording.channels * 2;
+        while (bytes.hasRemaining())
+        {
+            if (recording.channel.read(bytes, position + bytes.position()) < 0)
+                { break; }
+        }
+        int read = bytes.position() / (recording.channels * 2);
+        float scale = 1f / (32768f * recording.channels);
+        for (int f = 0; f < frames; f++)
+        {
+            float sum = 0;
+            if (f < read)
+            {
+                for (int c = 0; c < recording.channels; c++)
+                    { sum += bytes.getShort((f * recording.channels + c) * 2); }
+            }
+            ws.mono[f] = sum * scale;
+        }
+
+        // Windows go through the FFT in pairs, one in the real part and one in the imaginary
+        for (int w = 0; w < count; w += 2)
+        {
+            int a = w * HOP;
+            int b = (w + 1) * HOP;
+            boolean pair = w + 1 < count;
+            for (int i = 0; i < WINDOW_SIZE; i++)
+            {
+                ws.re[i] = ws.mono[a + i] * this.window[i];
+                ws.im[i] = pair ? ws.mono[b + i] * this.window[i] : 0f;
+            }
+            this.fft.transform(ws.re, ws.im);
+            this.fft.magnitudes(ws.re, ws.im, ws.first, ws.second);
+            resolve(ws.first, recording.sampleRate, ws, ws.levels[w]);
+            if (pair)
+                { resolve(ws.second, recording.sampleRate, ws, ws.levels[w + 1]); }
+        }
+        ws.windows = count;
+    }
+
+    // Picks the peaks of one magnitude spectrum and resolves them to the keys sounding, writing each key's level
+    private void resolve(float [] magnitude, float sampleRate, Workspace ws, float [] levels)
+    {
+        Arrays.fill(levels, 0f);
+        int peaks = findPeaks(magnitude, sampleRate, ws);
+        if (peaks == 0)
+            { return; }
+
+        float strongest = 0;
+        for (int note = 0; note < MAX_NOTES; note++)
+        {
+            // Every key's strength: its matched partials, the higher ones counting for less
+            Arrays.fill(ws.salience, 0f);
+            for (int p = 0; p < peaks; p++)
+            {
+                float level = ws.peakLevel[p];
+                if (level < SILENCE)
+                    { continue; }
+                for (int h = 1; h <= MAX_HARMONIC; h++)
+                {
+                    double key = ws.peakKey[p] - 12 * log2(h);
+                    int k = (int) Math.round(key);
+                    if (k >= 1 && k <= Keyboard.NUMBER_KEYS && Math.abs(key - k) < TOLERANCE)
+                        { ws.salience[k] += level / (float) Math.sqrt(h); }
+                }
+            }
+
+            int best = 0;
+            for (int k = 1; k <= Keyboard.NUMBER_KEYS; k++)
+            {
+                if (ws.salience[k] > ws.salience[best] && hasFundamental(k, peaks, ws))
+                    { best = k; }
+            }
+            // What is left on a chosen key's harmonic is mostly that key's own partial, so it must be clearer still
+            float needed = strongest * ACCEPT_RATIO * (onHarmonic(best, levels) ? 2 : 1);
+            if (best == 0 || ws.salience[best] < needed)
+                { break; }
+            strongest = Math.max(strongest, ws.salience[best]);
+            levels[best] = claim(best, peaks, ws);
+        }
+    }
+
+    // Finds local maxima above the floor, keeping the MAX_PEAKS loudest, with interpolated frequency and amplitude
+    private int findPeaks(float [] magnitude, float sampleRate, Workspace ws)
+    {
+        float loudest = 0;
+        for (float m : magnitude)
+            { loudest = Math.max(loudest, m); }
+        float toAmplitude = 4f / WINDOW_SIZE; // A sine of amplitude 1 peaks at WINDOW_SIZE / 4 under a Hann window
+        float floor = Math.max(loudest * PEAK_FLOOR, SILENCE / toAmplitude);
+        double binHz = sampleRate / WINDOW_SIZE;
+        int lowest = (int) (Keyboard.A0_FREQUENCY / binHz * 0.9); // Nothing below A0 can be a key
+        int peaks = 0;
+        for (int i = Math.max(1, lowest); i < magnitude.length - 1; i++)
+        {
+            float m = magnitude[i];
+            if (m < floor || m < magnitude[i - 1] || m <= magnitude[i + 1])
+                { continue; }
+            // Parabola through the log magnitudes of the peak and its neighbours
+            double l = Math.log(magnitude[i - 1] + 1e-12), c = Math.log(m), r = Math.log(magnitude[i + 1] + 1e-12);
+            double denominator = l - 2 * c + r;
+            double offset = denominator < 0 ? 0.5 * (l - r) / denominator : 0;
+            float level = (float) Math.exp(c - 0.25 * (l - r) * offset) * toAmplitude;
+            float key = (float) Keyboard.keyNumberOf((i + offset) * binHz);
+
+            if (peaks < MAX_PEAKS)
+                { peaks++; }
+            else if (level <= ws.peakLevel[peaks - 1])
+                { continue; }
+            // Insert in order of level, loudest first
+            int p = peaks - 1;
+            while (p > 0 && ws.peakLevel[p - 1] < level)
+            {
+                ws.peakLevel[p] = ws.peakLevel[p - 1];
+                ws.peakKey[p] = ws.peakKey[p - 1];
+                p--;
+            }
+            ws.peakLevel[p] = level;
+            ws.peakKey[p] = key;
+        }
+        return peaks;
+    }
+
+    // Returns true if a key sits on a harmonic (octave, twelfth, ...) of a key already resolved in this window
+    private static boolean onHarmonic(int keyNum, float [] levels)
+    {
+        for (int h = 2; h <= MAX_HARMONIC; h++)
+        {
+            double below = keyNum - 12 * log2(h);
+            int k = (int) Math.round(below);
+            if (k >= 1 && levels[k] > 0 && Math.abs(below - k) < TOLERANCE)
+                { return true; }
+        }
+        return false;
+    }
+
+    // A key only counts if its own fundamental is present, or for the bass, where the fundamental is weak, its octave
+    private static boolean hasFundamental(int keyNum, int peaks, Workspace ws)
+    {
+        for (int p = 0; p < peaks; p++)
+        {
+            if (ws.peakLevel[p] < SILENCE)
+                { continue; }
+            double key = ws.peakKey[p];
+            if (Math.abs(key - keyNum) < TOLERANCE || (keyNum <= 24 && Math.abs(key - 12 - keyNum) < TOLERANCE))
+                { return true; }
+        }
+        return false;
+    }
+
+    // Takes a key's share out of the peaks it explains and returns its level (its strongest partial's amplitude)
+    // A partial louder than both neighbouring partials of the same key is taken to be shared with another note,
+    // so only what the neighbours account for is removed
+    private static float claim(int keyNum, int peaks, Workspace ws)
+    {
+        Arrays.fill(ws.partials, 0f);
+        Arrays.fill(ws.partialPeaks, -1);
+        for (int p = 0; p < peaks; p++)
+        {
+            for (int h = 1; h <= MAX_HARMONIC; h++)
+            {
+                double key = ws.peakKey[p] - 12 * log2(h);
+                if (Math.abs(key - keyNum) < TOLERANCE && ws.peakLevel[p] > ws.partials[h])
+                {
+                    ws.partials[h] = ws.peakLevel[p];
+                    ws.partialPeaks[h] = p;
+                }
+            }
+        }
+        float level = 0;
+        for (int h = 1; h <= MAX_HARMONIC; h++)
+        {
+            int p = ws.partialPeaks[h];
+            if (p < 0)
+                { continue; }
+            float own = ws.partials[h];
+            float neighbours = Math.max(ws.partials[h - 1], ws.partials[h + 1]);
+            if (h > 1 && neighbours > 0)
+                { own = Math.min(own, neighbours); }
+            ws.peakLevel[p] -= own;
+            level = Math.max(level, ws.partials[h]);
+        }
+        return level;
+    }
+
+    private static double log2(double x)
+    {
+        return Math.log(x) / Math.log(2);
+    }
+
+    // Turns per-window key levels into note events, one window at a time in order
+    private static class Tracker
+    {
+        final float sampleRate;
+        final int [] seen = new int [Keyboard.NUMBER_KEYS + 1]; // Consecutive windows each key was detected
+        final int [] missed = new int [Keyboard.NUMBER_KEYS + 1]; // Consecutive windows each sounding key was not
+        final boolean [] sounding = new boolean [Keyboard.NUMBER_KEYS + 1];
+        final long [] onWindow = new long [Keyboard.NUMBER_KEYS + 1]; // Window a sounding note started in
+        final float [] peak = new float [Keyboard.NUMBER_KEYS + 1]; // Loudest level of the sounding note
+        final float [][] history = new float [WINDOW_SIZE / HOP + 1][]; // Recent windows' levels, for restrikes
+        final List<NoteEvent> events = new ArrayList<>();
+        long index; // Window being tracked
+
+        Tracker(float sampleRate)
+        {
+            this.sampleRate = sampleRate;
+            for (int i = 0; i < this.history.length; i++)
+                { this.history[i] = new float [Keyboard.NUMBER_KEYS + 1]; }
+        }
+
+        void next(float [] levels)
+        {
+            float [] earlier = this.history[(int) (this.index % this.history.length)]; // One window length ago
+            for (int k = 1; k <= Keyboard.NUMBER_KEYS; k++)
+            {
+                float level = levels[k];
+                if (level > 0)
+                {
+                    this.missed[k] = 0;
+                    this.seen[k]++;
+                    if (!this.sounding[k] && this.seen[k] >= MIN_ON_WINDOWS)
+                        { start(k, this.index - MIN_ON_WINDOWS + 1); }
+                    else if (this.sounding[k] && this.index - this.onWindow[k] >= 2 * this.history.length
+                             && level > earlier[k] * RESTRIKE_RATIO && earlier[k] > 0)
+                    {
+                        end(k, this.index);
+                        start(k, this.index);
+                    }
+                    this.peak[k] = Math.max(this.peak[k], level);
+                }
+                else
+                {
+                    this.seen[k] = 0;
+                    if (this.sounding[k] && ++this.missed[k] >= MIN_OFF_WINDOWS)
+                        { end(k, this.index - MIN_OFF_WINDOWS + 1); }
+                }
+            }
+            System.arraycopy(levels, 0, earlier, 0, levels.length);
+            this.index++;
+        }
+
+        private void start(int keyNum, long window)
+        {
+            this.sounding[keyNum] = true;
+            this.onWindow[keyNum] = window;
+            this.peak[keyNum] = 0;
+        }
+
+        // Emits the note's on and off now that its peak level, and so its velocity, is known
+        private void end(int keyNum, long window)
+        {
+            this.sounding[keyNum] = false;
+            this.missed[keyNum] = 0;
+            double db = 20 * Math.log10(Math.max(this.peak[keyNum], 1e-9f));
+            int velocity = (int) Math.max(1, Math.min(127, Math.round(127 * (1 + db / DYNAMIC_RANGE_DB))));
+            this.events.add(new NoteEvent(toFrame(this.onWindow[keyNum]), keyNum, true, velocity));
+            this.events.add(new NoteEvent(toFrame(window), keyNum, false, 0));
+        }
+
+        // A note is first heard in the window whose leading three eighths it starts in; times are converted to bank frames
+        private long toFrame(long window)
+        {
+            long frame = window * HOP + WINDOW_SIZE * 5 / 8;
+            return Math.round(frame * (double) SampleBank.SAMPLE_RATE / this.sampleRate);
+        }
+
+        List<NoteEvent> finish()
+        {
+            for (int k = 1; k <= Keyboard.NUMBER_KEYS; k++)
+            {
+                if (this.sounding[k])
+                    { end(k, this.index); }
+            }
+            Collections.sort(this.events);
+            return this.events;
+        }
+    }
+
+    // How far one key's sample is from Key.getFrequency()
+    public static class Tuning
+    {
+        public final Key key;
+        public final double measured; // Hz, or 0 if no fundamental was found
+        public final double cents; // Measured relative to expected, positive is sharp
+
+        Tuning(Key key, double measured)
+        {
+            this.key = key;
+            this.measured = measured;
+            this.cents = measured > 0 ? 1200 * log2(measured / key.getFrequency()) : Double.NaN;
+        }
+    }
+
+    // Measures the pitch of every key's sample in parallel: the partial nearest each expected harmonic is located to
+    // a fraction of a bin, and the lowest clearly present one gives the fundamental (piano partials run sharp, so
+    // the fundamental itself is preferred whenever it is there)
+    public List<Tuning> verifyTuning(Key [] keys) throws IOException
+    {
+        Fft big = new Fft(TUNING_SIZE);
+        float [] hann = Fft.hann(TUNING_SIZE);
+        List<ForkJoinTask<Tuning>> tasks = new ArrayList<>();
+        for (Key key : keys)
+            { tasks.add(this.pool.submit(() -> measure(key, big, hann))); }
+        List<Tuning> results = new ArrayList<>();
+        for (ForkJoinTask<Tuning> task : tasks)
+        {
+            try { results.add(task.get()); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException(); }
+            catch (ExecutionException e) { throw new IOException("Tuning check failed", e.getCause()); }
+        }
+        return results;
+    }
+
+    private static Tuning measure(Key key, Fft fft, float [] hann) throws Exception
+    {
+        Sample sample = SampleBank.decode(new File(key.getAudioPath()));
+        ShortBuffer pcm = sample.getPcm();
+        int skip = Math.min(sample.getFrames() / 10, (int) (SampleBank.SAMPLE_RATE / 20)); // Past the hammer noise
+        float [] re = new float [TUNING_SIZE];
+        float [] im = new float [TUNING_SIZE];
+        for (int i = 0; i < TUNING_SIZE && skip + i < sample.getFrames(); i++)
+        {
+            int f = (skip + i) * SampleBank.CHANNELS;
+            re[i] = (pcm.get(f) + pcm.get(f + 1)) * hann[i];
+        }
+        fft.transform(re, im);
+        float [] magnitude = new float [TUNING_SIZE / 2 + 1];
+        fft.magnitudes(re, im, magnitude, new float [TUNING_SIZE / 2 + 1]);
+
+        double binHz = SampleBank.SAMPLE_RATE / TUNING_SIZE;
+        double [] partial = new double [5];
+        double [] level = new double [5];
+        double loudest = 0;
+        for (int h = 1; h < partial.length; h++)
+        {
+            // Loudest bin within 60 cents of the expected partial, refined by a parabola through its neighbours
+            double expected = key.getFrequency() * h;
+            int lo = Math.max(1, (int) (expected * Math.pow(2, -0.05) / binHz));
+            int hi = Math.min(magnitude.length - 2, (int) Math.ceil(expected * Math.pow(2, 0.05) / binHz));
+            int best = lo;
+            for (int i = lo; i <= hi; i++)
+            {
+                if (magnitude[i] > magnitude[best])
+                    { best = i; }
+            }
+            if (best <= lo || best >= hi)
+                { continue; } // No peak inside the range, only the slope of a neighbour
+            double l = Math.log(magnitude[best - 1] + 1e-12), c = Math.log(magnitude[best] + 1e-12);
+            double r = Math.log(magnitude[best + 1] + 1e-12);
+            double offset = 0.5 * (l - r) / (l - 2 * c + r);
+            partial[h] = (best + offset) * binHz;
+            level[h] = magnitude[best];
+            loudest = Math.max(loudest, level[h]);
+        }
+        for (int h = 1; h < partial.length; h++)
+        {
+            if (partial[h] > 0 && level[h] >= loudest * 0.05)
+                { return new Tuning(key, partial[h] / h); }
+        }
+        return new Tuning(key, 0);
+    }
+
+    // Writes note-ons as CSV lines of frame,key,velocity,length in frames, which IntervalAnalyzer reads directly
+    public static void writeCsv(List<NoteEvent> events, File file) throws IOException
+    {
+        Map<Integer, NoteEvent> open = new HashMap<>();
+        List<String> lines = new ArrayList<>();
+        List<Long> starts = new ArrayList<>();
+        for (NoteEvent e : events)
+        {
+            if (e.isNoteOn())
+                { open.put(e.getKeyNum(), e); }
+            else
+            {
+                NoteEvent on = open.remove(e.getKeyNum());
+                if (on != null)
+                {
+                    lines.add(on.getFrame() + "," + on.getKeyNum() + "," + on.getVelocity() + "," + (e.getFrame() - on.getFrame()));
+                    starts.add(on.getFrame());
+                }
+            }
+        }
+        Integer [] order = new Integer [lines.size()];
+        for (int i = 0; i < order.length; i++)
+            { order[i] = i; }
+        Arrays.sort(order, Comparator.comparingLong(starts::get));
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file))))
+        {
+            out.println("frame,key,velocity,length");
+            for (int i : order)
+                { out.println(lines.get(i)); }
+        }
+    }
+
+    public static void main(String [] args) throws Exception
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Usage: java NoteTranscriber <recording.wav> [-csv notes.csv]");
+            System.out.println("       java NoteTranscriber -verify [tolerance cents]");
+            return;
+        }
+        NoteTranscriber transcriber = new NoteTranscriber();
+        if (args[0].equals("-verify"))
+        {
+            double tolerance = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+            int off = 0;
+            for (Tuning t : transcriber.verifyTuning(Keyboard.createKeys()))
+            {
+                boolean bad = !(Math.abs(t.cents) <= tolerance);
+                if (bad)
+                    { off++; }
+                System.out.printf("%2d %-4s %9.3f Hz  measured %9.3f Hz  %+7.2f cents%s%n", t.key.getKeyNum(), t.key.getName(),
+                                  t.key.getFrequency(), t.measured, t.cents, bad ? "  OUT OF TUNE" : "");
+            }
+            System.out.println(off + " keys off by more than " + tolerance + " cents");
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<NoteEvent> events = transcriber.transcribe(new File(args[0]));
+        System.out.printf("%d notes in %.2f s%n", events.size() / 2, (System.nanoTime() - start) / 1e9);
+        if (args.length > 2 && args[1].equals("-csv"))
+        {
+            writeCsv(events, new File(args[2]));
+            System.out.println("Wrote " + args[2]);
+        }
+        else
+        {
+            for (NoteEvent e : events)
+                { System.out.println(e); }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Renders a timed list of note events to a 16-bit WAV file without an audio device
+ * The timeline is cut into fixed-size chunks that are mixed in parallel on a fork-join pool
+ * A note that starts in an earlier chunk is fast-forwarded into each later chunk it still sounds in,
+ * so sustaining notes cross chunk boundaries seamlessly
+ * A note-off (or the same key struck again) fades the note out exactly as the AudioEngine does, sustain pedal included
+ * Chunks are written in order a batch at a time, so memory use does not grow with the length of the timeline
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class OfflineRenderer {
+    public static final int CHUNK_FRAMES = 1 << 16; // About 1.5 s of audio per parallel task
+
+    protected SampleSource samples;
+    protected ForkJoinPool pool;
+
+    public OfflineRenderer(SampleSource samples)
+    {
+        this(samples, ForkJoinPool.commonPool());
+    }
+
+    public OfflineRenderer(SampleSource samples, ForkJoinPool pool)
+    {
+        this.samples = samples;
+        this.pool = pool;
+    }
+
+    // A note-on resolved to its sample and the frames it covers on the timeline
+    private static class Note
+    {
+        long start;
+        long end;
+        long release = Long.MAX_VALUE; // Frame its note-off fades it from, if it has one
+        int keyNum;
+        Sample sample;
+        double pitchRatio;
+        float gain;
+    }
+
+    // Renders the events and writes them to a WAV file
+    public void render(List<NoteEvent> events, File out) throws IOException
+    {
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(out), 1 << 16))
+        {
+            render(events, stream);
+        }
+    }
+
+    // Renders the events as a complete WAV file to a stream; returns the number of frames written
+    public long render(List<NoteEvent> events, OutputStream out) throws IOException
+    {
+        Note [] notes = resolve(events);
+        long totalFrames = 0;
+        long longest = 0;
+        for (Note note : notes)
+        {
+            totalFrames = Math.max(totalFrames, note.end);
+            longest = Math.max(longest, note.end - note.start);
+        }
+        out.write(WavFile.header(totalFrames * SampleBank.FRAME_SIZE));
+
+        int chunks = (int) ((totalFrames + CHUNK_FRAMES - 1) / CHUNK_FRAMES);
+        int batch = Math.max(1, this.pool.getParallelism() * 2);
+        byte [][] pcm = new byte [batch][CHUNK_FRAMES * SampleBank.FRAME_SIZE];
+        for (int first = 0; first < chunks; first += batch)
+        {
+            List<RenderChunk> tasks = new ArrayList<>();
+            for (int c = first; c < Math.min(first + batch, chunks); c++)
+            {
+                long start = (long) c * CHUNK_FRAMES;
+                int length = (int) Math.min(CHUNK_FRAMES, totalFrames - start);
+                tasks.add(new RenderChunk(notes, longest, start, length, pcm[c - first], this.samples.createVoice()));
+            }
+            this.pool.invoke(new BatchTask(tasks));
+            for (RenderChunk task : tasks)
+                { out.write(task.out, 0, task.length * SampleBank.FRAME_SIZE); }
+        }
+        return totalFrames;
+    }
+
+    // Turns note-on events into notes sorted by start frame, each ended by its key's next note-off or note-on,
+    // or by lifting the sustain pedal if it was down at the note-off; keys without audio are skipped
+    private Note [] resolve(List<NoteEvent> events)
+    {
+        List<NoteEvent> sorted = new ArrayList<>(events);
+        Collections.sort(sorted);
+        List<Note> notes = new ArrayList<>();
+        Voice prototype = this.samples.createVoice(); // Knows how long this source's notes can ring
+        Map<Integer, Note> held = new HashMap<>(); // Sounding notes whose key is down
+        Map<Integer, Note> sustained = new HashMap<>(); // Sounding notes kept by the pedal
+        boolean pedal = false;
+        for (NoteEvent e : sorted)
+        {
+            long frame = e.getFrame();
+            if (e.isPedal())
+            {
+                pedal = e.isNoteOn();
+                if (!pedal)
+                {
+                    for (Note note : sustained.values())
+                        { release(note, frame); }
+                    sustained.clear();
+                }
+                continue;
+            }
+
+            Note previous = held.remove(e.getKeyNum());
+            if (!e.isNoteOn())
+            {
+                if (previous != null && pedal)
+                    { sustained.put(previous.keyNum, previous); }
+                else if (previous != null)
+                    { release(previous, frame); }
+                continue;
+            }
+            // Striking a key again fades out whatever it was still playing
+            if (previous != null)
+                { release(previous, frame); }
+            Note kept = sustained.remove(e.getKeyNum());
+            if (kept != null)
+                { release(kept, frame); }
+
+            Sample sample = this.samples.getSample(e.getKeyNum());
+            if (sample == null)
+                { continue; }
+            Note note = new Note();
+            note.keyNum = e.getKeyNum();
+            note.sample = sample;
+            note.pitchRatio = this.samples.getPitchRatio(e.getKeyNum());
+            note.gain = e.getGain();
+            note.start = frame;
+            note.end = note.start + prototype.duration(sample, note.pitchRatio);
+            notes.add(note);
+            held.put(note.keyNum, note);
+        }
+        return notes.toArray(new Note [0]);
+    }
+
+    // Fades a note out from the given frame, shortening it if it would otherwise play on past the fade
+    private static void release(Note note, long frame)
+    {
+        if (frame >= note.end)
+            { return; }
+        note.release = frame;
+        note.end = Math.min(note.end, frame + Voice.RELEASE_FRAMES);
+    }
+
+    // Runs a batch of chunk tasks and waits for all of them
+    private static class BatchTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        final List<RenderChunk> tasks;
+
+        BatchTask(List<RenderChunk> tasks)
+        {
+            this.tasks = tasks;
+        }
+
+        protected void compute()
+        {
+            invokeAll(this.tasks);
+        }
+    }
+
+    // Mixes every note overlapping one chunk of the timeline into 16-bit PCM
+    private static class RenderChunk extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        final Note [] notes;
+        final long longest; // Length of the longest note, bounds how far back a sounding note can start
+        final long start;
+        final int length;
+        final byte [] out;
+        final Voice voice;
+
+        RenderChunk(Note [] notes, long longest, long start, int length, byte [] out, Voice voice)
+        {
+            this.notes = notes;
+            this.longest = longest;
+            this.start = start;
+            this.length = length;
+            this.out = out;
+            this.voice = voice;
+        }
+
+        protected void compute()
+        {
+            float [] left = new float [this.length];
+            float [] right = new float [this.length];
+            Voice voice = this.voice;
+            long end = this.start + this.length;
+
+            for (int i = firstCandidate(); i < this.notes.length && this.notes[i].start < end; i++)
+            {
+                Note note = this.notes[i];
+                if (note.end <= this.start)
+                    { continue; }
+                voice.start(note.keyNum, note.sample, note.pitchRatio, note.gain, i);
+                int offset = 0;
+                if (note.start < this.start)
+                {
+                    // Fast-forward to the chunk, starting the fade on the way if the note-off came earlier
+                    long at = note.start;
+                    if (note.release < this.start)
+                    {
+                        voice.skip(note.release - at);
+                        voice.release(Voice.RELEASE_FRAMES);
+                        at = note.release;
+                    }
+                    voice.skip(this.start - at);
+                }
+                else
+                    { offset = (int) (note.start - this.start); }
+                if (note.release >= this.start && note.release < end)
+                {
+                    int split = (int) (note.release - this.start);
+                    if (voice.isActive())
+                        { voice.render(left, right, offset, split - offset); }
+                    voice.release(Voice.RELEASE_FRAMES);
+                    offset = split;
+                }
+                if (voice.isActive())
+                    { voice.render(left, right, offset, this.length - offset); }
+            }
+
+            int b = 0;
+            for (int i = 0; i < this.length; i++)
+            {
+                b = writeSample(left[i], this.out, b);
+                b = writeSample(right[i], this.out, b);
+            }
+        }
+
+        // Binary searches for the first note that could still be sounding at the start of the chunk
+        private int firstCandidate()
+        {
+            long earliest = this.start - this.longest;
+            int lo = 0;
+            int hi = this.notes.length;
+            while (lo < hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (this.notes[mid].start < earliest)
+                    { lo = mid + 1; }
+                else
+                    { hi = mid; }
+            }
+            return lo;
+        }
+    }
+
+    // Clips a float sample to 16 bits and stores it little-endian
+    static int writeSample(float value, byte [] out, int b)
+    {
+        int s = (int) (value * 32767f);
+        if (s > Short.MAX_VALUE) { s = Short.MAX_VALUE; }
+        else if (s < Short.MIN_VALUE) { s = Short.MIN_VALUE; }
+        out[b] = (byte) s;
+        out[b + 1] = (byte) (s >> 8);
+        return b + 2;
+    }
+}
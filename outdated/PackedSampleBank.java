@@ -0,0 +1,132 @@
+/*
+ * Single-file sample bank: every key's PCM packed into one file that is memory-mapped once at startup
+ * Replaces 88 file opens and WAV header parses with one open and one map, and hands out zero-copy slices per key
+ *
+ * Layout (little-endian):
+ *      Header  16 bytes: magic "PKBK", version, entry count, table offset
+ *      Table   32 bytes per entry: keyNum, sampleRate, channels (short), bits (short), reserved, data offset (long), data length (long)
+ *      Data    raw 16-bit interleaved PCM for each entry, each starting on a 4096-byte boundary
+ *
+ * Build a bank with: java PackedSampleBank <sample directory> <bank file>
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public class PackedSampleBank implements SampleSource {
+    protected static final int MAGIC = 0x4B424B50; // "PKBK"
+    protected static final int VERSION = 1;
+    protected static final int HEADER_SIZE = 16;
+    protected static final int ENTRY_SIZE = 32;
+    protected static final int ALIGNMENT = 4096;
+
+    protected Sample [] samples; // Slices of the mapped file indexed by keyNum
+
+    // Maps a bank file and slices out every key's PCM
+    public PackedSampleBank(File bankFile) throws IOException
+    {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(bankFile.toPath(), StandardOpenOption.READ))
+        {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer bank = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (bank.getInt(0) != MAGIC || bank.getInt(4) != VERSION)
+            { throw new IOException("Not a version " + VERSION + " sample bank: " + bankFile); }
+        int count = bank.getInt(8);
+        int table = bank.getInt(12);
+
+        int maxKey = 0;
+        for (int i = 0; i < count; i++)
+            { maxKey = Math.max(maxKey, bank.getInt(table + i * ENTRY_SIZE)); }
+        this.samples = new Sample [maxKey + 1];
+
+        for (int i = 0; i < count; i++)
+        {
+            int entry = table + i * ENTRY_SIZE;
+            int keyNum = bank.getInt(entry);
+            if (bank.getInt(entry + 4) != (int) SampleBank.SAMPLE_RATE || bank.getShort(entry + 8) != SampleBank.CHANNELS
+                || bank.getShort(entry + 10) != 16)
+                { throw new IOException("Key " + keyNum + " is not 16-bit stereo 44.1 kHz"); }
+            int offset = (int) bank.getLong(entry + 16);
+            int length = (int) bank.getLong(entry + 24);
+            ByteBuffer data = bank.duplicate().position(offset).limit(offset + length).slice().order(ByteOrder.LITTLE_ENDIAN);
+            this.samples[keyNum] = new Sample(data.asShortBuffer());
+        }
+    }
+
+    public Sample getSample(int keyNum)
+    {
+        if (keyNum < 1 || keyNum >= this.samples.length)
+            { return null; }
+        return this.samples[keyNum];
+    }
+
+    // Packs <sampleDir>/<key name>.wav for every key into a single bank file; keys without a file are left out
+    public static void pack(File sampleDir, File out) throws IOException
+    {
+        Key [] keys = Keyboard.createKeys();
+        Sample [] decoded = new Sample [keys.length];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++)
+        {
+            File wav = new File(sampleDir, keys[i].getName() + ".wav");
+            try {
+                decoded[i] = SampleBank.decode(wav);
+                count++;
+            }
+            catch (Exception e) { System.out.println("Skipping " + wav + ": " + e.getMessage()); }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + count * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(HEADER_SIZE);
+        long offset = align(header.capacity());
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (decoded[i] == null)
+                { continue; }
+            header.putInt(keys[i].getKeyNum()).putInt((int) SampleBank.SAMPLE_RATE);
+            header.putShort((short) SampleBank.CHANNELS).putShort((short) 16).putInt(0);
+            header.putLong(offset).putLong(decoded[i].getByteSize());
+            offset = align(offset + decoded[i].getByteSize());
+        }
+        header.flip();
+
+        try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (header.hasRemaining())
+                { channel.write(header); }
+            for (int i = 0, e = 0; i < keys.length; i++)
+            {
+                if (decoded[i] == null)
+                    { continue; }
+                long at = header.getLong(HEADER_SIZE + e * ENTRY_SIZE + 16);
+                ShortBuffer pcm = decoded[i].getPcm();
+                ByteBuffer data = ByteBuffer.allocate(pcm.limit() * 2).order(ByteOrder.LITTLE_ENDIAN);
+                data.asShortBuffer().put(pcm.duplicate());
+                while (data.hasRemaining())
+                    { at += channel.write(data, at); }
+                e++;
+            }
+        }
+    }
+
+    // Rounds a file offset up to the data alignment
+    private static long align(long offset)
+    {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    public static void main(String [] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.out.println("Usage: java PackedSampleBank <sample directory> <bank file>");
+            return;
+        }
+        pack(new File(args[0]), new File(args[1]));
+    }
+}
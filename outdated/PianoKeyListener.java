@@ -0,0 +1,11 @@
+/*
+ * Receives key presses and releases from a KeyboardPanel
+ */
+
+public interface PianoKeyListener {
+    // Called when a key (1-88) goes down
+    void keyPressed(int keyNum);
+
+    // Called when a key (1-88) comes back up
+    void keyReleased(int keyNum);
+}
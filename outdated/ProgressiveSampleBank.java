@@ -0,0 +1,141 @@
+/*
+ * Sample bank that loads in the background so the keyboard is usable before every sample is in memory
+ * Keys are decoded concurrently on virtual threads (platform threads before Java 21), nearest middle C first, and each
+ * key becomes playable the moment its own sample arrives; until then getSample returns null
+ * Time to the first playable note, rather than time to fully loaded, is what a user waiting on the window notices
+ */
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class ProgressiveSampleBank implements SampleSource {
+    public static final int CENTER_KEY = 40; // Middle C, loaded first
+    protected static final int LOADERS_PER_CORE = 2; // Loading is part disk, part decode, so run a few more than the cores
+
+    protected final AtomicReferenceArray<Sample> samples; // Indexed by keyNum, filled in as keys load
+    protected final int [] order; // keyNums, nearest the center first
+    protected final Key [] keys;
+    protected final AtomicInteger next = new AtomicInteger(); // Index into order of the next key to claim
+    protected final AtomicInteger loaded = new AtomicInteger();
+    protected final AtomicInteger failed = new AtomicInteger();
+    protected final CountDownLatch done;
+    protected final long startNanos = System.nanoTime();
+    protected volatile long firstLoadedNanos; // Time from construction to the first playable key
+    protected volatile long allLoadedNanos; // Time from construction until every key was tried
+
+    // Starts loading every key on the default number of loader threads and returns straight away
+    public ProgressiveSampleBank(Key [] keys)
+    {
+        this(keys, Runtime.getRuntime().availableProcessors() * LOADERS_PER_CORE);
+    }
+
+    public ProgressiveSampleBank(Key [] keys, int loaders)
+    {
+        this.keys = keys;
+        int maxKey = 0;
+        for (Key key : keys)
+            { maxKey = Math.max(maxKey, key.getKeyNum()); }
+        this.samples = new AtomicReferenceArray<>(maxKey + 1);
+
+        Integer [] byDistance = new Integer [keys.length];
+        for (int i = 0; i < keys.length; i++)
+            { byDistance[i] = i; }
+        Arrays.sort(byDistance, Comparator.comparingInt(i -> Math.abs(keys[i].getKeyNum() - CENTER_KEY)));
+        this.order = new int [keys.length];
+        for (int i = 0; i < keys.length; i++)
+            { this.order[i] = byDistance[i]; }
+
+        this.done = new CountDownLatch(keys.length);
+        ThreadFactory threads = VirtualThreads.factory("sample-loader-");
+        for (int i = 0; i < Math.max(1, Math.min(loaders, keys.length)); i++)
+            { threads.newThread(this::load).start(); }
+    }
+
+    // Loader thread: claims keys in priority order until none are left
+    private void load()
+    {
+        for (int n = this.next.getAndIncrement(); n < this.order.length; n = this.next.getAndIncrement())
+        {
+            Key key = this.keys[this.order[n]];
+            try {
+                this.samples.set(key.getKeyNum(), SampleBank.load(new File(key.getAudioPath())));
+                if (this.loaded.getAndIncrement() == 0)
+                    { this.firstLoadedNanos = System.nanoTime() - this.startNanos; }
+            }
+            catch (Exception e) {
+                this.failed.incrementAndGet();
+                AudioMetrics.get().failure();
+                System.out.println("Error: Audio not found (" + key.getAudioPath() + ")");
+            }
+            if (this.loaded.get() + this.failed.get() == this.keys.length)
+                { this.allLoadedNanos = System.nanoTime() - this.startNanos; }
+            this.done.countDown();
+        }
+    }
+
+    // Returns the key's sample, or null if it has not loaded yet (or could not be loaded)
+    public Sample getSample(int keyNum)
+    {
+        if (keyNum < 1 || keyNum >= this.samples.length())
+            { return null; }
+        return this.samples.get(keyNum);
+    }
+
+    public boolean isLoaded(int keyNum)
+    {
+        return getSample(keyNum) != null;
+    }
+
+    // Returns the keys that can be played right now
+    public KeySet getLoadedKeys()
+    {
+        KeySet set = KeySet.EMPTY;
+        for (int k = 1; k < this.samples.length(); k++)
+        {
+            if (this.samples.get(k) != null)
+                { set = set.with(k); }
+        }
+        return set;
+    }
+
+    public int getLoadedCount()
+    {
+        return this.loaded.get();
+    }
+
+    public int getFailedCount()
+    {
+        return this.failed.get();
+    }
+
+    public int getKeyCount()
+    {
+        return this.keys.length;
+    }
+
+    // Returns true once every key has loaded or failed
+    public boolean isDone()
+    {
+        return this.done.getCount() == 0;
+    }
+
+    // Waits until every key has loaded or failed
+    public void awaitLoaded() throws InterruptedException
+    {
+        this.done.await();
+    }
+
+    // Returns the nanoseconds from construction to the first playable key, or 0 if none has loaded yet
+    public long getFirstLoadedNanos()
+    {
+        return this.firstLoadedNanos;
+    }
+
+    // Returns the nanoseconds from construction until every key was done, or 0 while still loading
+    public long getAllLoadedNanos()
+    {
+        return this.allLoadedNanos;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Algorithmic room reverb in the Schroeder-Moorer style of Freeverb: eight damped feedback combs in parallel feed
+ * four allpass diffusers, once per channel, with the right channel's delays slightly longer for stereo width
+ * Each delay line is run across the whole block before the next one, which keeps the inner loops short and tight
+ * The wet signal is added to the bus, so the dry mix passes through untouched
+ */
+
+import java.util.Arrays;
+
+public class Reverb implements Effect {
+    protected static final int [] COMB_TUNING = { 1116, 1188, 1277, 1356, 1422, 1491, 1557, 1617 }; // Frames at 44.1 kHz
+    protected static final int [] ALLPASS_TUNING = { 556, 441, 341, 225 };
+    protected static final int STEREO_SPREAD = 23; // Extra frames on every right-channel delay
+    protected static final float INPUT_GAIN = 0.015f; // Keeps the eight summed combs from overloading
+    protected static final float ALLPASS_FEEDBACK = 0.5f;
+    protected static final float ANTI_DENORMAL = 1e-20f; // Tiny offset so decaying tails never reach denormal floats
+
+    protected final float [][] combs = new float [COMB_TUNING.length * 2][]; // Left combs, then right combs
+    protected final int [] combPos = new int [COMB_TUNING.length * 2];
+    protected final float [] combStore = new float [COMB_TUNING.length * 2]; // Damping filter state per comb
+    protected final float [][] allpasses = new float [ALLPASS_TUNING.length * 2][];
+    protected final int [] allpassPos = new int [ALLPASS_TUNING.length * 2];
+    protected final float [] input = new float [AudioEngine.BLOCK_FRAMES]; // Mono feed to the combs
+    protected final float [] wetLeft = new float [AudioEngine.BLOCK_FRAMES];
+    protected final float [] wetRight = new float [AudioEngine.BLOCK_FRAMES];
+
+    protected volatile float feedback; // Comb feedback, sets the decay time
+    protected volatile float damping; // How much faster high frequencies die away, 0-1
+    protected volatile float wet; // Level of the reverb added to the bus
+
+    // Creates a medium room mixed in quietly enough to leave on
+    public Reverb()
+    {
+        this(0.75, 0.4, 0.12);
+    }
+
+    public Reverb(double roomSize, double damping, double wet)
+    {
+        for (int i = 0; i < COMB_TUNING.length; i++)
+        {
+            this.combs[i] = new float [COMB_TUNING[i]];
+            this.combs[i + COMB_TUNING.length] = new float [COMB_TUNING[i] + STEREO_SPREAD];
+        }
+        for (int i = 0; i < ALLPASS_TUNING.length; i++)
+        {
+            this.allpasses[i] = new float [ALLPASS_TUNING[i]];
+            this.allpasses[i + ALLPASS_TUNING.length] = new float [ALLPASS_TUNING[i] + STEREO_SPREAD];
+        }
+        setRoomSize(roomSize);
+        setDamping(damping);
+        setWet(wet);
+    }
+
+    public String getName()
+    {
+        return "reverb";
+    }
+
+    // Room size from 0 (small, short decay) to 1 (large, long decay)
+    public void setRoomSize(double size)
+    {
+        this.feedback = (float) (0.7 + 0.28 * Math.max(0, Math.min(1, size)));
+    }
+
+    public void setDamping(double damping)
+    {
+        this.damping = (float) (0.4 * Math.max(0, Math.min(1, damping)));
+    }
+
+    // Wet level from 0 (no reverb) to 1
+    public void setWet(double wet)
+    {
+        this.wet = (float) (3 * Math.max(0, Math.min(1, wet)));
+    }
+
+    public void process(float [] left, float [] right, int offset, int frames)
+    {
+        for (int done = 0; done < frames; )
+        {
+            int n = Math.min(frames - done, this.input.length);
+            processBlock(left, right, offset + done, n);
+            done += n;
+        }
+    }
+
+    private void processBlock(float [] left, float [] right, int offset, int frames)
+    {
+        for (int i = 0; i < frames; i++)
+            { this.input[i] = (left[offset + i] + right[offset + i]) * INPUT_GAIN + ANTI_DENORMAL; }
+        Arrays.fill(this.wetLeft, 0, frames, 0f);
+        Arrays.fill(this.wetRight, 0, frames, 0f);
+
+        float feedback = this.feedback;
+        float damp = this.damping;
+        for (int c = 0; c < COMB_TUNING.length; c++)
+        {
+            comb(c, this.wetLeft, frames, feedback, damp);
+            comb(c + COMB_TUNING.length, this.wetRight, frames, feedback, damp);
+        }
+        for (int a = 0; a < ALLPASS_TUNING.length; a++)
+        {
+            allpass(a, this.wetLeft, frames);
+            allpass(a + ALLPASS_TUNING.length, this.wetRight, frames);
+        }
+
+        float gain = this.wet;
+        for (int i = 0; i < frames; i++)
+        {
+            left[offset + i] += this.wetLeft[i] * gain;
+            right[offset + i] += this.wetRight[i] * gain;
+        }
+    }
+
+    // Feedback comb with a one-pole lowpass in the loop, summed into out
+    private void comb(int index, float [] out, int frames, float feedback, float damp)
+    {
+        float [] buffer = this.combs[index];
+        int pos = this.combPos[index];
+        float store = this.combStore[index];
+        for (int i = 0; i < frames; i++)
+        {
+            float delayed = buffer[pos];
+            store = delayed * (1 - damp) + store * damp;
+            buffer[pos] = this.input[i] + store * feedback;
+            out[i] += delayed;
+            if (++pos == buffer.length)
+                { pos = 0; }
+        }
+        this.combPos[index] = pos;
+        this.combStore[index] = store;
+    }
+
+    // Schroeder allpass, in place on signal
+    private void allpass(int index, float [] signal, int frames)
+    {
+        float [] buffer = this.allpasses[index];
+        int pos = this.allpassPos[index];
+        for (int i = 0; i < frames; i++)
+        {
+            float delayed = buffer[pos];
+            float in = signal[i];
+            signal[i] = delayed - in;
+            buffer[pos] = in + delayed * ALLPASS_FEEDBACK;
+            if (++pos == buffer.length)
+                { pos = 0; }
+        }
+        this.allpassPos[index] = pos;
+    }
+
+    public void reset()
+    {
+        for (float [] buffer : this.combs)
+            { Arrays.fill(buffer, 0f); }
+        for (float [] buffer : this.allpasses)
+            { Arrays.fill(buffer, 0f); }
+        Arrays.fill(this.combStore, 0f);
+    }
+}
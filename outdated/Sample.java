@@ -0,0 +1,77 @@
+/*
+ * A decoded piano sample held in memory
+ * PCM is stored as interleaved 16-bit stereo frames (left, right, left, right, ...) at 44.1 kHz
+ * The buffer is read with absolute indices so the same Sample can be shared by any number of voices
+ * A conditioned sample (see SampleConditioner) also carries a sustain loop and a gain that evens out its loudness
+ */
+
+import java.nio.ShortBuffer;
+
+public class Sample {
+    protected final ShortBuffer pcm; // Interleaved stereo PCM
+    protected final int frames; // Number of stereo frames in pcm
+    protected final int loopStart; // First frame of the sustain loop
+    protected final int loopEnd; // Frame playback jumps back from while the key is held; 0 if there is no loop
+    protected final float loopDecay; // Gain applied on each jump back, so the note keeps dying away as it loops
+    protected final float gain; // Playback gain that brings the sample to the bank's common loudness
+
+    public Sample(ShortBuffer pcm)
+    {
+        this(pcm, 0, 0, 1f, 1f);
+    }
+
+    public Sample(ShortBuffer pcm, int loopStart, int loopEnd, float loopDecay, float gain)
+    {
+        this.pcm = pcm;
+        this.frames = pcm.limit() / SampleBank.CHANNELS;
+        if (loopEnd != 0 && (loopStart < 0 || loopEnd <= loopStart || loopEnd > this.frames - 2))
+            { throw new IllegalArgumentException("Loop must lie inside the sample"); }
+        this.loopStart = loopStart;
+        this.loopEnd = loopEnd;
+        this.loopDecay = loopDecay;
+        this.gain = gain;
+    }
+
+    // Returns the interleaved PCM buffer
+    public ShortBuffer getPcm()
+    {
+        return this.pcm;
+    }
+
+    // Returns number of stereo frames
+    public int getFrames()
+    {
+        return this.frames;
+    }
+
+    public boolean isLooped()
+    {
+        return this.loopEnd > 0;
+    }
+
+    public int getLoopStart()
+    {
+        return this.loopStart;
+    }
+
+    public int getLoopEnd()
+    {
+        return this.loopEnd;
+    }
+
+    public float getLoopDecay()
+    {
+        return this.loopDecay;
+    }
+
+    public float getGain()
+    {
+        return this.gain;
+    }
+
+    // Returns size of the PCM data in bytes
+    public int getByteSize()
+    {
+        return this.frames * SampleBank.FRAME_SIZE;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Decodes every key's WAV file once and keeps the PCM in memory
+ * Key presses read from the bank instead of opening, parsing and decoding ./PianoSamples/<name>.wav each time
+ * Samples are indexed by Key.getKeyNum() (1-88) and conditioned by SampleConditioner as they load
+ */
+
+import java.io.*;
+import java.nio.ShortBuffer;
+import javax.sound.sampled.*;
+
+public class SampleBank implements SampleSource {
+    public static final float SAMPLE_RATE = 44100f;
+    public static final int CHANNELS = 2;
+    public static final int FRAME_SIZE = 4; // Bytes per 16-bit stereo frame
+    public static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false);
+
+    protected Sample [] samples; // Index 0 is unused so keyNum can be used directly
+
+    public SampleBank(Key [] keys)
+    {
+        this.samples = new Sample [keys.length + 1];
+        for (Key key : keys)
+        {
+            try {
+                this.samples[key.getKeyNum()] = load(new File(key.getAudioPath()));
+            }
+            catch (Exception e) {
+                AudioMetrics.get().failure();
+                System.out.println("Error: Audio not found (" + key.getAudioPath() + ")");
+            }
+        }
+    }
+
+    // Returns the decoded sample for a key number, or null if it failed to load
+    public Sample getSample(int keyNum)
+    {
+        if (keyNum < 1 || keyNum >= this.samples.length)
+            { return null; }
+        return this.samples[keyNum];
+    }
+
+    // Returns total bytes of PCM held by the bank
+    public long getByteSize()
+    {
+        long total = 0;
+        for (Sample s : this.samples)
+        {
+            if (s != null)
+                { total += s.getByteSize(); }
+        }
+        return total;
+    }
+
+    // Decodes a WAV file and conditions it for playback (onset trimmed, sustain loop, level normalized)
+    public static Sample load(File file) throws IOException, UnsupportedAudioFileException
+    {
+        return SampleConditioner.condition(decode(file));
+    }
+
+    // Reads a WAV file and converts it to 16-bit stereo 44.1 kHz PCM held in a short array
+    public static Sample decode(File file) throws IOException, UnsupportedAudioFileException
+    {
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file.getAbsoluteFile());
+             AudioInputStream pcm = toBankFormat(in))
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte [] buffer = new byte [16384];
+            int n;
+            while ((n = pcm.read(buffer)) > 0)
+                { bytes.write(buffer, 0, n); }
+            return new Sample(ShortBuffer.wrap(toShorts(bytes.toByteArray())));
+        }
+    }
+
+    // Converts an audio stream to the bank format when it is not already in it
+    private static AudioInputStream toBankFormat(AudioInputStream in)
+    {
+        AudioFormat f = in.getFormat();
+        if (f.matches(FORMAT))
+            { return in; }
+        AudioFormat pcm = new AudioFormat(f.getSampleRate(), 16, f.getChannels(), true, false);
+        AudioInputStream converted = f.matches(pcm) ? in : AudioSystem.getAudioInputStream(pcm, in);
+        if (pcm.getChannels() != CHANNELS || pcm.getSampleRate() != SAMPLE_RATE)
+            { converted = AudioSystem.getAudioInputStream(FORMAT, converted); }
+        return converted;
+    }
+
+    // Packs little-endian byte pairs into shorts
+    private static short [] toShorts(byte [] data)
+    {
+        short [] out = new short [data.length / 2];
+        for (int i = 0; i < out.length; i++)
+            { out[i] = (short) ((data[2 * i] & 0xFF) | (data[2 * i + 1] << 8)); }
+        return out;
+    }
+}
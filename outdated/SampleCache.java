@@ -0,0 +1,266 @@
+/*
+ * Lazily loaded sample source for banks too large to hold decoded on the heap
+ * A key's WAV file is memory-mapped and its PCM is served straight from the mapping, conditioned by SampleConditioner
+ * (as a view, so still without copying); files that are not 16-bit stereo 44.1 kHz PCM (including
+ * WAVE_FORMAT_EXTENSIBLE ones) are decoded and conditioned like a SampleBank's instead
+ * Samples are cached per audio file, so keys sharing a file share one entry, and evicted least recently used first
+ * once their PCM exceeds the byte budget
+ * getSample runs on the render thread, so it never opens, maps or decodes a file and never takes a lock: for a key
+ * whose file is not resident it asks the loader thread for it and meanwhile serves the nearest resident key,
+ * pitch-shifted to the right note by getPitchRatio, so even a first press sounds
+ * The loader starts by filling the budget with the keys nearest middle C; the centre key is loaded before the
+ * constructor returns, so there is always something to fall back on
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+public class SampleCache implements SampleSource {
+    protected static final int IDLE = 0, REQUESTED = 1, FAILED = 2; // Load state of a file that is not resident
+
+    protected final Key [] keys;
+    protected final long byteBudget; // Maximum bytes of PCM kept resident
+    protected final String [] paths; // Each distinct audio file
+    protected final int [] fileOf; // Index into paths for each keyNum
+    protected final AtomicReferenceArray<Sample> samples; // Indexed by file; written only by the loader
+    protected final AtomicIntegerArray state; // IDLE, REQUESTED or FAILED per file
+    protected final AtomicLongArray lastUsed; // Use clock value of each file's last hit, for LRU
+    protected final AtomicLong useClock = new AtomicLong();
+    protected final AtomicIntegerArray servedFrom; // Key whose sample getSample last returned for each keyNum
+    protected final Thread loader;
+    protected volatile long residentBytes; // Written only by the loader
+
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder misses = new LongAdder();
+    protected volatile long evictions;
+
+    public SampleCache(Key [] keys, long byteBudget)
+    {
+        if (byteBudget <= 0)
+            { throw new IllegalArgumentException("byteBudget must be positive"); }
+        this.keys = keys;
+        this.byteBudget = byteBudget;
+        this.fileOf = new int [keys.length + 1];
+        Map<String, Integer> files = new LinkedHashMap<>();
+        for (Key key : keys)
+        {
+            Integer file = files.putIfAbsent(key.getAudioPath(), files.size());
+            this.fileOf[key.getKeyNum()] = file == null ? files.size() - 1 : file;
+        }
+        this.paths = files.keySet().toArray(new String [0]);
+        this.samples = new AtomicReferenceArray<>(this.paths.length);
+        this.state = new AtomicIntegerArray(this.paths.length);
+        this.lastUsed = new AtomicLongArray(this.paths.length);
+        this.servedFrom = new AtomicIntegerArray(keys.length + 1);
+
+        loadFile(this.fileOf[Math.min(ProgressiveSampleBank.CENTER_KEY, keys.length)]);
+        this.loader = new Thread(this::run, "sample-cache-loader");
+        this.loader.setDaemon(true);
+        this.loader.start();
+    }
+
+    // Returns the key's own sample if it is resident; otherwise asks the loader for it and returns the nearest resident
+    // key's sample, which getPitchRatio then shifts to this key's pitch (null only if nothing at all is resident)
+    public Sample getSample(int keyNum)
+    {
+        if (keyNum < 1 || keyNum > this.keys.length)
+            { return null; }
+        int file = this.fileOf[keyNum];
+        Sample sample = this.samples.get(file);
+        if (sample != null)
+        {
+            this.hits.increment();
+            this.lastUsed.lazySet(file, this.useClock.incrementAndGet());
+            this.servedFrom.lazySet(keyNum, keyNum);
+            return sample;
+        }
+        this.misses.increment();
+        prefetch(keyNum);
+        for (int d = 1; d < this.keys.length; d++)
+        {
+            for (int k = keyNum - d; k <= keyNum + d; k += 2 * d)
+            {
+                if (k < 1 || k > this.keys.length)
+                    { continue; }
+                sample = this.samples.get(this.fileOf[k]);
+                if (sample != null)
+                {
+                    this.servedFrom.lazySet(keyNum, k);
+                    return sample;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Playback rate for the sample getSample last returned for a key: 1 for its own, the frequency ratio for a neighbour's
+    public double getPitchRatio(int keyNum)
+    {
+        if (keyNum < 1 || keyNum > this.keys.length)
+            { return 1.0; }
+        int source = this.servedFrom.get(keyNum);
+        if (source == 0 || source == keyNum)
+            { return 1.0; }
+        return this.keys[keyNum - 1].getFrequency() / this.keys[source - 1].getFrequency();
+    }
+
+    // Asks the loader to map a key that is not resident, e.g. when the pointer moves over it; never blocks
+    public void prefetch(int keyNum)
+    {
+        if (keyNum < 1 || keyNum > this.keys.length)
+            { return; }
+        int file = this.fileOf[keyNum];
+        if (this.samples.get(file) == null && this.state.compareAndSet(file, IDLE, REQUESTED))
+            { LockSupport.unpark(this.loader); }
+    }
+
+    public boolean isResident(int keyNum)
+    {
+        return keyNum >= 1 && keyNum <= this.keys.length && this.samples.get(this.fileOf[keyNum]) != null;
+    }
+
+    // Loader thread: fills the budget nearest middle C first, then serves requests as they come
+    private void run()
+    {
+        Integer [] byDistance = new Integer [this.keys.length];
+        for (int i = 0; i < this.keys.length; i++)
+            { byDistance[i] = this.keys[i].getKeyNum(); }
+        Arrays.sort(byDistance, Comparator.comparingInt(k -> Math.abs(k - ProgressiveSampleBank.CENTER_KEY)));
+        for (int keyNum : byDistance)
+        {
+            serveRequests();
+            int file = this.fileOf[keyNum];
+            if (this.samples.get(file) != null)
+                { continue; }
+            loadFile(file);
+            Sample sample = this.samples.get(file);
+            if (sample != null && this.residentBytes > this.byteBudget)
+            {
+                unload(file); // Only the decoded size tells whether it fits; this one did not, so the fill is done
+                break;
+            }
+        }
+        while (true)
+        {
+            if (!serveRequests())
+                { LockSupport.park(this); }
+        }
+    }
+
+    // Loads every requested file; returns false if there were none
+    private boolean serveRequests()
+    {
+        boolean served = false;
+        for (int f = 0; f < this.paths.length; f++)
+        {
+            if (this.state.get(f) == REQUESTED)
+            {
+                loadFile(f);
+                evict(f);
+                served = true;
+            }
+        }
+        return served;
+    }
+
+    private void loadFile(int file)
+    {
+        if (this.samples.get(file) != null)
+        {
+            this.state.set(file, IDLE);
+            return;
+        }
+        String path = this.paths[file];
+        Sample sample;
+        try {
+            sample = load(path);
+        }
+        catch (Exception e) {
+            this.state.set(file, FAILED); // Not retried on every press
+            AudioMetrics.get().failure();
+            System.out.println("Error: Audio not found (" + path + ")");
+            return;
+        }
+        this.lastUsed.set(file, this.useClock.incrementAndGet());
+        this.samples.set(file, sample);
+        this.state.set(file, IDLE);
+        this.residentBytes += sample.getByteSize();
+    }
+
+    // Maps a WAV file and wraps its PCM, converting only if it is not already in the bank format
+    protected Sample load(String path) throws Exception
+    {
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+        {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        WavFile wav;
+        try {
+            wav = WavFile.parse(mapped);
+        }
+        catch (IOException e) { return SampleBank.load(new File(path)); } // A layout the mapped reader does not handle
+        if (!wav.isBankFormat())
+            { return SampleBank.load(new File(path)); }
+
+        ByteBuffer data = mapped.position(wav.getDataOffset()).limit(wav.getDataOffset() + wav.getDataLength()).slice();
+        return SampleConditioner.condition(new Sample(data.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer()));
+    }
+
+    // Drops least recently used samples until the cache fits its budget, always keeping the newest entry
+    // Voices still playing an evicted sample keep its mapping alive until they finish
+    private void evict(int newest)
+    {
+        while (this.residentBytes > this.byteBudget)
+        {
+            int eldest = -1;
+            for (int f = 0; f < this.paths.length; f++)
+            {
+                if (f != newest && this.samples.get(f) != null
+                    && (eldest < 0 || this.lastUsed.get(f) < this.lastUsed.get(eldest)))
+                    { eldest = f; }
+            }
+            if (eldest < 0)
+                { break; }
+            unload(eldest);
+            this.evictions++;
+        }
+    }
+
+    private void unload(int file)
+    {
+        this.residentBytes -= this.samples.get(file).getByteSize();
+        this.samples.set(file, null);
+    }
+
+    public long getHits()
+    {
+        return this.hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return this.misses.sum();
+    }
+
+    public long getEvictions()
+    {
+        return this.evictions;
+    }
+
+    // Returns bytes of PCM currently held by the cache
+    public long getResidentBytes()
+    {
+        return this.residentBytes;
+    }
+
+    public long getByteBudget()
+    {
+        return this.byteBudget;
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * Supplies the audio the engine plays for each key
+ * Implementations decide how and when PCM is loaded (all up front, lazily from mapped files, ...), or synthesize it
+ */
+
+public interface SampleSource {
+    // Returns the sample for a key number (1-88), or null if the key has no audio
+    Sample getSample(int keyNum);
+
+    // Returns the playback rate for a key's sample, 1.0 unless the sample was recorded at a different pitch
+    default double getPitchRatio(int keyNum)
+    {
+        return 1.0;
+    }
+
+    // Creates a voice that can play this source's samples; sources that synthesize sound supply their own kind
+    default Voice createVoice()
+    {
+        return new Voice();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Sample source that loads only every Nth key and pitch-shifts the nearest recording for the rest
+ * With a stride of 3 (one sample per minor third) only 30 of the 88 files are decoded
+ * Each key is mapped to its closest loaded key and played at the ratio of the two keys' frequencies
+ */
+
+import java.io.File;
+
+public class SparseSampleSource implements SampleSource {
+    protected Sample [] samples; // Loaded samples indexed by keyNum, null for keys that are not recorded
+    protected int [] sourceKey; // Recorded key that each key is rendered from
+    protected double [] pitchRatio; // Playback rate for each key relative to its source
+
+    public SparseSampleSource(Key [] keys, int stride)
+    {
+        if (stride < 1)
+            { throw new IllegalArgumentException("stride must be at least 1"); }
+        this.samples = new Sample [keys.length + 1];
+        this.sourceKey = new int [keys.length + 1];
+        this.pitchRatio = new double [keys.length + 1];
+
+        // Load every stride-th key, always including the top key so both ends of the keyboard are covered
+        for (Key key : keys)
+        {
+            int n = key.getKeyNum();
+            if ((n - 1) % stride == 0 || n == keys.length)
+            {
+                try {
+                    this.samples[n] = SampleBank.load(new File(key.getAudioPath()));
+                }
+                catch (Exception e) {
+                    AudioMetrics.get().failure();
+                    System.out.println("Error: Audio not found (" + key.getAudioPath() + ")");
+                }
+            }
+        }
+
+        for (Key key : keys)
+        {
+            int n = key.getKeyNum();
+            int source = nearestLoaded(n);
+            this.sourceKey[n] = source;
+            if (source > 0)
+                { this.pitchRatio[n] = key.getFrequency() / keys[source - 1].getFrequency(); }
+        }
+    }
+
+    // Finds the closest key with a loaded sample, preferring the lower one on a tie
+    private int nearestLoaded(int keyNum)
+    {
+        for (int d = 0; d < this.samples.length; d++)
+        {
+            if (keyNum - d >= 1 && this.samples[keyNum - d] != null)
+                { return keyNum - d; }
+            if (keyNum + d < this.samples.length && this.samples[keyNum + d] != null)
+                { return keyNum + d; }
+        }
+        return 0;
+    }
+
+    public Sample getSample(int keyNum)
+    {
+        if (keyNum < 1 || keyNum >= this.samples.length || this.sourceKey[keyNum] == 0)
+            { return null; }
+        return this.samples[this.sourceKey[keyNum]];
+    }
+
+    public double getPitchRatio(int keyNum)
+    {
+        return this.pitchRatio[keyNum];
+    }
+
+    // Returns the number of samples actually decoded
+    public int getLoadedCount()
+    {
+        int count = 0;
+        for (Sample s : this.samples)
+        {
+            if (s != null)
+                { count++; }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Sample-free sound source: every key is a Karplus-Strong string tuned to Key.getFrequency()
+ * A string is a delay line one period long that feeds back through a 3-tap loss filter; the filter averages
+ * neighbouring samples (damping high partials faster, as a real string does), supplies the fractional part of the
+ * period by linear interpolation, and scales by the per-period loss that gives the key its decay time
+ * The only stored audio is each key's excitation, one period of filtered noise (about 100 KB for the whole keyboard),
+ * so startup is instant and no WAV files are needed
+ * Use with: new Keyboard(StringModel::new)
+ */
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+public class StringModel implements SampleSource {
+    protected static final double LONGEST_DECAY = 12.0; // Seconds for A0 to fall 60 dB
+    protected static final double DECAY_HALVING_KEYS = 18.0; // Decay time halves every this many keys up
+    protected static final double DAMPED_DECAY = 0.12; // Seconds to fall 60 dB once the damper is on the string
+    protected static final double SILENCE_DB = 80.0; // How far a string decays before it counts as finished
+    protected static final double HAMMER_POSITION = 1.0 / 7.0; // Strike point as a fraction of the string
+
+    protected final Sample [] excitations; // Initial string displacement for each keyNum
+    protected final int [] delays; // Whole samples of delay for each keyNum
+    protected final float [][] taps; // Loss filter for each keyNum while the key is held
+    protected final float [][] dampedTaps; // Loss filter once the key is released
+    protected final float [] panLeft; // Low keys to the left, high keys to the right
+    protected final float [] panRight;
+    protected final long [] ringFrames; // Frames until a held string has decayed SILENCE_DB
+    protected int maxHistory; // Longest delay line, plus the filter's two extra taps
+
+    public StringModel(Key [] keys)
+    {
+        int size = 0;
+        for (Key key : keys)
+            { size = Math.max(size, key.getKeyNum() + 1); }
+        this.excitations = new Sample [size];
+        this.delays = new int [size];
+        this.taps = new float [size][];
+        this.dampedTaps = new float [size][];
+        this.panLeft = new float [size];
+        this.panRight = new float [size];
+        this.ringFrames = new long [size];
+
+        for (Key key : keys)
+        {
+            int k = key.getKeyNum();
+            double period = SampleBank.SAMPLE_RATE / key.getFrequency();
+            // The averaging taps add half a sample of delay and the interpolation adds the fraction
+            int delay = (int) Math.floor(period - 0.5);
+            double fraction = period - 0.5 - delay;
+            double decay = LONGEST_DECAY * Math.pow(0.5, (k - 1) / DECAY_HALVING_KEYS);
+
+            this.delays[k] = delay;
+            this.taps[k] = lossFilter(fraction, period, decay);
+            this.dampedTaps[k] = lossFilter(fraction, period, Math.min(decay, DAMPED_DECAY));
+            double pan = 0.25 + 0.5 * (k - 1) / (keys.length - 1);
+            this.panLeft[k] = (float) Math.cos(pan * Math.PI / 2);
+            this.panRight[k] = (float) Math.sin(pan * Math.PI / 2);
+            this.ringFrames[k] = (long) Math.ceil(decay * SILENCE_DB / 60.0 * SampleBank.SAMPLE_RATE);
+            this.excitations[k] = excite(k, delay + 2);
+            this.maxHistory = Math.max(this.maxHistory, delay + 2);
+        }
+    }
+
+    // Taps for linear interpolation by fraction after a two-point average, scaled to lose 60 dB in decay seconds
+    private static float [] lossFilter(double fraction, double period, double decay)
+    {
+        double loss = Math.pow(10, -3 * period / (SampleBank.SAMPLE_RATE * decay));
+        return new float [] { (float) (loss * 0.5 * (1 - fraction)), (float) (loss * 0.5), (float) (loss * 0.5 * fraction) };
+    }
+
+    // One period of noise, low-passed more for low keys, with the partials a hammer at HAMMER_POSITION cannot excite removed
+    private static Sample excite(int keyNum, int length)
+    {
+        Random random = new Random(keyNum); // Same sound every run
+        double brightness = 0.2 + 0.7 * (keyNum - 1) / 87.0;
+        double [] x = new double [length];
+        double y = 0;
+        double mean = 0;
+        for (int i = 0; i < length; i++)
+        {
+            y += brightness * (random.nextDouble() * 2 - 1 - y);
+            x[i] = y;
+            mean += y / length;
+        }
+        int comb = Math.max(1, (int) Math.round(length * HAMMER_POSITION));
+        double [] shaped = new double [length];
+        double peak = 1e-9;
+        for (int i = 0; i < length; i++)
+        {
+            shaped[i] = (x[i] - mean) - (i >= comb ? x[i - comb] - mean : 0);
+            peak = Math.max(peak, Math.abs(shaped[i]));
+        }
+
+        short [] pcm = new short [length * SampleBank.CHANNELS];
+        for (int i = 0; i < length; i++)
+        {
+            short s = (short) Math.round(shaped[i] / peak * 16384);
+            pcm[i * 2] = s;
+            pcm[i * 2 + 1] = s;
+        }
+        return new Sample(ShortBuffer.wrap(pcm));
+    }
+
+    // Returns the key's excitation, which a StringVoice loads into its delay line
+    public Sample getSample(int keyNum)
+    {
+        if (keyNum < 1 || keyNum >= this.excitations.length)
+            { return null; }
+        return this.excitations[keyNum];
+    }
+
+    public Voice createVoice()
+    {
+        return new StringVoice(this);
+    }
+
+    // Returns how long the string started by an excitation rings while held
+    public long ringFramesOf(Sample excitation)
+    {
+        for (int k = 1; k < this.excitations.length; k++)
+        {
+            if (this.excitations[k] == excitation)
+                { return this.ringFrames[k]; }
+        }
+        return 0;
+    }
+}
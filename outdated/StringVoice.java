@@ -0,0 +1,166 @@
+/*
+ * A voice that plays a StringModel string instead of reading a sample
+ * The string's delay line lives in a linear work buffer: the last period of output sits just before the write
+ * position, and each new sample is the loss filter applied to the samples one period back
+ * No sample within one period depends on another, so the filter runs a period at a time as a plain loop over float
+ * arrays that the JIT can turn into SIMD; the work buffer is compacted only once every STEP frames
+ * Releasing the key puts the damper on the string and fades the voice out; a string that has decayed to silence
+ * frees its voice by itself
+ */
+
+import java.nio.ShortBuffer;
+
+public class StringVoice extends Voice {
+    protected static final int STEP = 4096; // Frames rendered between compactions of the work buffer
+    protected static final float SILENCE = 1e-4f; // Output level (-80 dB) below which a string is finished
+
+    protected final StringModel model;
+    protected final float [] work; // Delay line history followed by room for new output
+    protected final float [] period; // One period of new output
+    protected int pos; // Where the next sample is written in work
+    protected int delay; // Whole samples in the delay line
+    protected int history; // Samples the loss filter looks back over: delay + 2
+    protected float tap0, tap1, tap2; // Loss filter applied to the samples delay, delay + 1 and delay + 2 back
+    protected float panLeft, panRight;
+    protected boolean damped;
+
+    public StringVoice(StringModel model)
+    {
+        this.model = model;
+        this.work = new float [model.maxHistory + STEP];
+        this.period = new float [model.maxHistory];
+    }
+
+    // Loads the key's excitation into the delay line and tunes the loss filter to the key
+    public void start(int keyNum, Sample excitation, double pitchRatio, float gain, long startOrder)
+    {
+        super.start(keyNum, excitation, pitchRatio, gain, startOrder);
+        this.delay = this.model.delays[keyNum];
+        this.history = this.delay + 2;
+        ShortBuffer pcm = excitation.getPcm();
+        for (int i = 0; i < this.history; i++)
+            { this.work[i] = pcm.get(i * SampleBank.CHANNELS) * SCALE; }
+        this.pos = this.history;
+        setTaps(this.model.taps[keyNum]);
+        this.panLeft = this.model.panLeft[keyNum];
+        this.panRight = this.model.panRight[keyNum];
+        this.damped = false;
+    }
+
+    private void setTaps(float [] taps)
+    {
+        this.tap0 = taps[0];
+        this.tap1 = taps[1];
+        this.tap2 = taps[2];
+    }
+
+    public long duration(Sample excitation, double pitchRatio)
+    {
+        return this.model.ringFramesOf(excitation);
+    }
+
+    // The excitation is only the string's first period, not something played through, so the fade is never shortened
+    protected int fadeLength(int frames)
+    {
+        return frames;
+    }
+
+    public void render(float [] left, float [] right, int offset, int frames)
+    {
+        run(left, right, offset, frames);
+    }
+
+    // Runs the string forward without mixing, so offline rendering can start a note part-way through
+    public void skip(long frames)
+    {
+        while (this.active && frames > 0)
+        {
+            int n = (int) Math.min(frames, STEP);
+            run(null, null, 0, n);
+            frames -= n;
+        }
+    }
+
+    // Advances the string by frames, adding it into the mix unless left is null; stops the voice when it is done
+    private void run(float [] left, float [] right, int offset, int frames)
+    {
+        if (this.releasing)
+        {
+            frames = Math.min(frames, this.releaseLeft);
+            if (!this.damped)
+            {
+                setTaps(this.model.dampedTaps[this.keyNum]);
+                this.damped = true;
+            }
+        }
+        float env = envelope();
+        float step = this.releasing ? this.releaseStep : 0f;
+        float gainLeft = this.gain * this.panLeft;
+        float gainRight = this.gain * this.panRight;
+        float [] w = this.work;
+        float [] out = this.period;
+        float peak = 0f;
+
+        for (int done = 0; done < frames; )
+        {
+            int n = Math.min(this.delay, frames - done);
+            if (this.pos + n > w.length)
+            {
+                System.arraycopy(w, this.pos - this.history, w, 0, this.history);
+                this.pos = this.history;
+            }
+
+            // Loss filter over at most one period: every input is at least a period old, so iterations are independent
+            int r = this.pos - this.delay;
+            for (int i = 0; i < n; i++)
+                { out[i] = this.tap0 * w[r + i] + this.tap1 * w[r + i - 1] + this.tap2 * w[r + i - 2]; }
+            System.arraycopy(out, 0, w, this.pos, n);
+            this.pos += n;
+
+            if (left != null)
+            {
+                int o = offset + done;
+                for (int i = 0; i < n; i++)
+                {
+                    float s = out[i] * (env - step * i);
+                    left[o + i] += s * gainLeft;
+                    right[o + i] += s * gainRight;
+                }
+            }
+            for (int i = 0; i < n; i++)
+                { peak = Math.max(peak, Math.abs(out[i])); }
+            env -= step * n;
+            done += n;
+        }
+
+        this.level = peak * this.gain * Math.max(env, 0f);
+        if (endRelease(frames) || (frames > 0 && this.level < SILENCE))
+            { stop(); }
+    }
+
+    // Checks that a released string fades over the whole release time instead of cutting off; exits with status 1 if not
+    public static void main(String [] args)
+    {
+        StringModel model = new StringModel(Keyboard.createKeys());
+        boolean ok = true;
+        for (int key : new int [] { 1, 40, 49, 88 })
+        {
+            StringVoice voice = (StringVoice) model.createVoice();
+            voice.start(key, model.getSample(key), 1.0, 1f, 0);
+            float [] left = new float [Voice.RELEASE_FRAMES];
+            float [] right = new float [Voice.RELEASE_FRAMES];
+            voice.render(left, right, 0, AudioEngine.BLOCK_FRAMES);
+            voice.release(Voice.RELEASE_FRAMES);
+            int fade = voice.releaseLeft;
+            voice.render(left, right, 0, Voice.RELEASE_FRAMES / 2);
+            System.out.printf("key %2d: fade %d frames, still sounding halfway %b%n", key, fade, voice.isActive());
+            if (fade != Voice.RELEASE_FRAMES || !voice.isActive())
+                { ok = false; }
+        }
+        if (!ok)
+        {
+            System.out.println("Error: string release fades were cut short");
+            System.exit(1);
+        }
+    }
+}
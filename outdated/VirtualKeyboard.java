@@ -23,7 +23,35 @@ public class VirtualKeyboard {
         // Initialize a backend
         // keyboard can be the backend 
         // create the GUI within the virtual keyboard class!
-        KeyboardApplication keyboardGUI = new KeyboardApplication();
+        // "-connect target" sends notes to a NoteServer instead of starting an audio engine here
+        if (args.length > 1 && args[0].equals("-connect"))
+        {
+            try {
+                new KeyboardApplication(new Keyboard(NoteClient.connect(args[1])));
+            }
+            catch (java.io.IOException e) { System.out.println("Error: Could not connect to note server " + args[1]); }
+            return;
+        }
+
+        // "-strings" synthesizes every key with StringModel, so no samples are loaded at all
+        boolean strings = args.length > 0 && args[0].equals("-strings");
+        KeyboardApplication keyboardGUI = strings ? new KeyboardApplication(new Keyboard(StringModel::new)) : new KeyboardApplication();
+        if (strings)
+            { args = java.util.Arrays.copyOfRange(args, 1, args.length); }
+
+        // A MIDI file given on the command line is played through the keyboard's engine
+        if (args.length > 0)
+        {
+            try {
+                java.util.List<NoteEvent> song = MidiSequence.load(new java.io.File(args[0]));
+                // Notes on keys that have not loaded would be silent, so let the bank finish first
+                SampleSource samples = keyboardGUI.keyboard.getSampleSource();
+                if (samples instanceof ProgressiveSampleBank)
+                    { ((ProgressiveSampleBank) samples).awaitLoaded(); }
+                keyboardGUI.keyboard.playSequence(song);
+            }
+            catch (Exception e) { System.out.println("Error: Could not read MIDI file " + args[0]); }
+        }
 
         // Key assignment Test *******************
         // Keyboard test = keyboardGUI.keyboard;
@@ -43,13 +71,23 @@ class KeyboardApplication extends JFrame {
     private final int NUMBER_KEYS = 88; 
 
     private JLabel displayLabel = new JLabel("Press a key!"); 
+    private JLabel scaleLabel = new JLabel(); // Scale and tonic chord for the selected starting note
 
     // Initialize a new keyboard 
-    Keyboard keyboard = new Keyboard(); 
+    Keyboard keyboard; 
+    KeyboardPanel keyboardPanel; 
 
     // Constructor
     public KeyboardApplication ()
     {
+        this(new Keyboard());
+    }
+
+    // Creates the window around a keyboard, which may play locally or through a note server
+    public KeyboardApplication (Keyboard keyboard)
+    {
+        this.keyboard = keyboard;
+
         // Initialize frame and font
         setTitle("Piano Keyboard"); 
         setSize(FRAME_WIDTH, FRAME_HEIGHT);
@@ -72,7 +110,7 @@ class KeyboardApplication extends JFrame {
             bottom.setBackground(Color.RED);
 
         // Top subdivisions
-        JLayeredPane keyboardPane = new JLayeredPane(); // Pane that allows for JButtons to layer over eachother
+        keyboardPanel = new KeyboardPanel(keyboard.keys); // Paints and hit-tests all 88 keys
         JPanel display = new JPanel(); // Panel to display notes
             display.setBackground(Color.BLUE);
         displayLabel.setFont(largeFont);
@@ -90,41 +128,8 @@ class KeyboardApplication extends JFrame {
 
         // Adding grouplayout
         // Creating the keyboard
-        JButton [] buttons = new JButton [NUMBER_KEYS]; // An array of JButtons that correspond to the piano keys
-        PianoKeys pk = new PianoKeys(); // ActionListener for piano key JButtons
-        
-        // Creating a set that stores the key numbers for black keys
-        Set<Integer> blackKeyNums = new HashSet<>(); 
-        for (int i = 1; i <= NUMBER_KEYS; i++) 
-        {
-            int j = 12 * (i / 12); //Represents octave shift
-            if ( (i - 2 - j) % 5 == 0 || (i - j) % 5 == 0)
-                { blackKeyNums.add( (Integer) i ); }
-        }
-        // Positioning the keys within JLayeredPane
-        int keyboardX = 5; // Starting x coordinate for keyboard generation within JLayeredPane
-        int keyboardY = 20; // Starting y coordinate for keyboard generation within JLayeredPane
-        for (int i = 0; i < NUMBER_KEYS; i++)
-        {
-            String id = "" + i; 
-            buttons[i] = new JButton();
-            buttons[i].setActionCommand(id);
-            buttons[i].addActionListener(pk); 
-
-            if (blackKeyNums.contains(i + 1))
-            {
-                buttons[i].setBackground(Color.BLACK);
-                buttons[i].setBounds(keyboardX, keyboardY, 10, 30);
-                keyboardPane.add(buttons[i], JLayeredPane.DRAG_LAYER);
-            }
-            else {
-                keyboardX += 5;
-                buttons[i].setBackground(Color.WHITE);
-                buttons[i].setBounds(keyboardX, keyboardY, 10, 60);
-                keyboardPane.add(buttons[i], JLayeredPane.DEFAULT_LAYER);
-                keyboardX += 5;
-            }
-        }
+        keyboardPanel.addPianoKeyListener(new PianoKeys()); // Listener for piano keys
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(new ComputerKeys()); // Typing keys play notes
 
         // Display for last key pressed
         GroupLayout displayLayout = new GroupLayout(display); 
@@ -163,14 +168,14 @@ class KeyboardApplication extends JFrame {
             .addContainerGap()
             .addGroup(topLayout.createParallelGroup(GroupLayout.Alignment.CENTER)
                 .addComponent(display)
-                .addComponent(keyboardPane)
+                .addComponent(keyboardPanel)
             )    
             .addContainerGap()   
         );
         topLayout.setVerticalGroup(topLayout.createSequentialGroup()
             .addContainerGap()
             .addComponent(display)
-            .addComponent(keyboardPane)
+            .addComponent(keyboardPanel)
             .addContainerGap()
         );
         top.setLayout(topLayout);
@@ -179,7 +184,7 @@ class KeyboardApplication extends JFrame {
         //JComboBox
         JComboBox<String> startingNote = new JComboBox<String>();
         for (int i = 0; i < NUMBER_KEYS; i++)
-            { startingNote.addItem(keyboard.KEY_NAMES[i]); }
+            { startingNote.addItem(Keyboard.KEY_NAMES[i]); }
         startingNote.setBounds(0, 0, 10, 10);
 
         //RadioButtons
@@ -189,6 +194,31 @@ class KeyboardApplication extends JFrame {
         tonality.add(major); 
         tonality.add(minor);
 
+        // Show the scale for the selected starting note and tonality
+        ScaleControls scaleControls = new ScaleControls(startingNote, major);
+        startingNote.addActionListener(scaleControls);
+        major.addActionListener(scaleControls);
+        minor.addActionListener(scaleControls);
+        startingNote.setSelectedIndex(39); // Middle C
+        major.setSelected(true);
+        scaleControls.actionPerformed(null);
+        bottomUR.add(scaleLabel);
+
+        // Record button, saves each take to its own session directory under recordings/
+        JToggleButton record = new JToggleButton("Record");
+        record.setEnabled(keyboard.getNoteQueue() != null); // Notes sent to a note server are recorded there
+        record.addActionListener(new RecordControls(record));
+        bottomLL.add(record);
+
+        // Sample loading progress; keys shade in as their samples arrive
+        if (keyboard.getSampleSource() instanceof ProgressiveSampleBank)
+        {
+            JProgressBar loading = new JProgressBar();
+            loading.setStringPainted(true);
+            bottomLR.add(loading);
+            new LoadProgress((ProgressiveSampleBank) keyboard.getSampleSource(), loading).start();
+        }
+
         //JComboPanel
         JPanel comboPanel = new JPanel(); 
         comboPanel.add(startingNote);
@@ -280,17 +310,198 @@ class KeyboardApplication extends JFrame {
         setVisible(true); 
     }
 
-    // Inner class that implements ActionListener for keyboard JButtons
-    class PianoKeys implements ActionListener {
+    // Inner class that sends key presses from the keyboard panel to the backend
+    class PianoKeys implements PianoKeyListener {
+        public void keyPressed(int keyNum)
+        {
+            long handlerStart = System.nanoTime();
+            int id = keyNum - 1;
+            keyboard.playKeyAudio(id); 
+            AudioMetrics.get().record(AudioMetrics.Stage.NOTE_ENQUEUE, System.nanoTime() - handlerStart);
+
+            String notePlayed = keyboard.getKeyPlayed(id);
+            Harmony.Chord chord = Harmony.recognize(keyboardPanel.getPressed());
+            displayLabel.setText(chord == null ? notePlayed : notePlayed + "  " + chord);            
+        }
+
+        public void keyReleased(int keyNum)
+        {
+            keyboard.releaseKeyAudio(keyNum - 1);
+        }
+    }
+
+    // Inner class that plays the piano from the computer keyboard, laid out like two rows of piano keys
+    // Z row starts at C3 and Q row at C4 (black keys on the rows above), Page Up/Down shift an octave, space is the sustain pedal
+    // The rows overlap (',' and Q are both C4), so a note sounds until the last computer key holding it is let go
+    class ComputerKeys implements KeyEventDispatcher {
+        private final int [] LOWER_ROW = { KeyEvent.VK_Z, KeyEvent.VK_S, KeyEvent.VK_X, KeyEvent.VK_D, KeyEvent.VK_C, 
+            KeyEvent.VK_V, KeyEvent.VK_G, KeyEvent.VK_B, KeyEvent.VK_H, KeyEvent.VK_N, KeyEvent.VK_J, KeyEvent.VK_M, 
+            KeyEvent.VK_COMMA, KeyEvent.VK_L, KeyEvent.VK_PERIOD, KeyEvent.VK_SEMICOLON, KeyEvent.VK_SLASH };
+        private final int [] UPPER_ROW = { KeyEvent.VK_Q, KeyEvent.VK_2, KeyEvent.VK_W, KeyEvent.VK_3, KeyEvent.VK_E, 
+            KeyEvent.VK_R, KeyEvent.VK_5, KeyEvent.VK_T, KeyEvent.VK_6, KeyEvent.VK_Y, KeyEvent.VK_7, KeyEvent.VK_U, 
+            KeyEvent.VK_I, KeyEvent.VK_9, KeyEvent.VK_O, KeyEvent.VK_0, KeyEvent.VK_P, KeyEvent.VK_OPEN_BRACKET, 
+            KeyEvent.VK_EQUALS, KeyEvent.VK_CLOSE_BRACKET };
+        private final int C3 = 28; // Key number of C3, C4 is 40
+
+        private Map<Integer, Integer> offsets = new HashMap<Integer, Integer>(); // Key code to keys above C3
+        private Map<Integer, Integer> down = new HashMap<Integer, Integer>(); // Key code to the piano key it is holding
+        private int [] holders = new int [NUMBER_KEYS + 1]; // Computer keys holding each piano key down
+        private int octaveShift = 0;
+        private boolean pedal = false;
+
+        ComputerKeys()
+        {
+            for (int i = 0; i < LOWER_ROW.length; i++)
+                { offsets.put(LOWER_ROW[i], i); }
+            for (int i = 0; i < UPPER_ROW.length; i++)
+                { offsets.put(UPPER_ROW[i], i + 12); }
+        }
+
+        // Returns true for the keys it handles so they are not also typed into the focused component
+        public boolean dispatchKeyEvent(KeyEvent e)
+        {
+            boolean pressed = e.getID() == KeyEvent.KEY_PRESSED;
+            boolean released = e.getID() == KeyEvent.KEY_RELEASED;
+            // Shortcuts pass through, but a key let go with a modifier down must still release its note
+            if (!released && (e.isControlDown() || e.isAltDown() || e.isMetaDown()))
+                { return false; }
+            // Typed characters carry no key code; swallow the ones produced by keys played above
+            int code = pressed || released ? e.getKeyCode() : Character.toUpperCase(e.getKeyChar());
+            if (!pressed && !released)
+                { return code == KeyEvent.VK_SPACE || offsets.containsKey(code); }
+
+            if (code == KeyEvent.VK_SPACE)
+            {
+                if (pedal != pressed)
+                {
+                    pedal = pressed;
+                    keyboard.setSustain(pedal);
+                }
+                return true;
+            }
+            if (code == KeyEvent.VK_PAGE_UP || code == KeyEvent.VK_PAGE_DOWN)
+            {
+                if (pressed)
+                    { octaveShift = Math.max(-2, Math.min(3, octaveShift + (code == KeyEvent.VK_PAGE_UP ? 1 : -1))); }
+                return true;
+            }
+
+            Integer offset = offsets.get(code);
+            if (offset == null)
+                { return false; }
+            if (pressed)
+            {
+                // Held keys auto-repeat; only the first press plays
+                if (down.containsKey(code))
+                    { return true; }
+                int keyNum = C3 + octaveShift * 12 + offset;
+                if (keyNum < 1 || keyNum > NUMBER_KEYS)
+                    { return true; }
+                AudioMetrics.get().record(AudioMetrics.Stage.EVENT_DISPATCH, (System.currentTimeMillis() - e.getWhen()) * 1000000L);
+                down.put(code, keyNum);
+                if (holders[keyNum]++ == 0)
+                    { keyboardPanel.fire(keyNum, true); }
+            }
+            else
+            {
+                Integer keyNum = down.remove(code);
+                if (keyNum != null && --holders[keyNum] == 0)
+                    { keyboardPanel.fire(keyNum, false); }
+            }
+            return true;
+        }
+    }
+
+    // Inner class that shows the scale and tonic chord chosen with the starting note JComboBox and Major/Minor buttons
+    class ScaleControls implements ActionListener {
+        private JComboBox<String> startingNote;
+        private JRadioButton major;
+
+        ScaleControls(JComboBox<String> startingNote, JRadioButton major)
+        {
+            this.startingNote = startingNote;
+            this.major = major;
+        }
+
         public void actionPerformed(ActionEvent e)
         {
-            JButton b = (JButton) e.getSource(); 
-            String id = b.getActionCommand();
-            // System.out.println(Integer.parseInt(id));
-            keyboard.playKeyAudio(Integer.parseInt(id)); 
+            int root = startingNote.getSelectedIndex() + 1;
+            Harmony.ScaleType type = major.isSelected() ? Harmony.ScaleType.MAJOR : Harmony.ScaleType.MINOR;
+            Harmony.ChordType triad = major.isSelected() ? Harmony.ChordType.MAJOR : Harmony.ChordType.MINOR;
 
-            String notePlayed = keyboard.getKeyPlayed(Integer.parseInt(id));
-            displayLabel.setText(notePlayed);            
+            StringBuilder text = new StringBuilder("<html>" + Keyboard.KEY_NAMES[root - 1] + " " + type + ":");
+            KeySet scale = Harmony.scale(root, type, 1);
+            for (int k = scale.nextAbove(0); k != -1; k = scale.nextAbove(k))
+                { text.append(' ').append(Harmony.pitchName(k)); }
+            text.append("<br>Tonic: ").append(Harmony.pitchName(root)).append(' ').append(triad).append("</html>");
+            scaleLabel.setText(text.toString());
+        }
+    }
+
+    // Inner class that polls the progressive sample bank and shows its progress until every key is loaded
+    class LoadProgress implements ActionListener {
+        private ProgressiveSampleBank bank;
+        private JProgressBar bar;
+        private javax.swing.Timer timer = new javax.swing.Timer(50, this);
+
+        LoadProgress(ProgressiveSampleBank bank, JProgressBar bar)
+        {
+            this.bank = bank;
+            this.bar = bar;
+            bar.setMaximum(bank.getKeyCount());
+        }
+
+        void start()
+        {
+            keyboardPanel.setAvailable(bank.getLoadedKeys());
+            timer.start();
+        }
+
+        public void actionPerformed(ActionEvent e)
+        {
+            int loaded = bank.getLoadedCount();
+            bar.setValue(loaded);
+            bar.setString("Samples " + loaded + "/" + bank.getKeyCount());
+            keyboardPanel.setAvailable(bank.getLoadedKeys());
+            if (bank.isDone())
+            {
+                timer.stop();
+                bar.setString(bank.getFailedCount() == 0 ? String.format("Loaded in %.0f ms", bank.getAllLoadedNanos() / 1e6)
+                                                         : bank.getFailedCount() + " samples missing");
+            }
+        }
+    }
+
+    // Inner class that starts and stops recording with the Record toggle button
+    class RecordControls implements ActionListener {
+        private JToggleButton button;
+
+        RecordControls(JToggleButton button)
+        {
+            this.button = button;
+        }
+
+        public void actionPerformed(ActionEvent e)
+        {
+            try {
+                if (button.isSelected())
+                {
+                    String session = new java.text.SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+                    NoteRecorder recorder = keyboard.startRecording(new java.io.File("recordings", "session-" + session));
+                    button.setText("Stop");
+                    button.setToolTipText("Recording to " + recorder.getDirectory());
+                }
+                else
+                {
+                    keyboard.stopRecording();
+                    button.setText("Record");
+                }
+            }
+            catch (java.io.IOException ex) {
+                System.out.println("Error: Could not record: " + ex.getMessage());
+                button.setSelected(false);
+                button.setText("Record");
+            }
         }
     }
 
@@ -0,0 +1,28 @@
+/*
+ * Thread factories that use virtual threads when the JVM has them (Java 21+) and daemon platform threads otherwise
+ * Thread.ofVirtual() is looked up reflectively so callers still compile and run on older JDKs
+ */
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VirtualThreads {
+    // Returns a factory naming its threads prefix1, prefix2, ...
+    public static ThreadFactory factory(String prefix)
+    {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return r -> {
+                Thread thread = new Thread(r, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * A single sounding note inside the AudioEngine
+ * Voices are preallocated by the engine and reused: start() binds a voice to a sample and render() walks
+ * through it, adding each frame into the engine's mix buffers until the sample ends
+ * A voice started with a pitch ratio other than 1 resamples its sample with cubic (Catmull-Rom) interpolation
+ * release() fades the voice out linearly and frees it as soon as the fade ends, instead of playing the whole sample
+ * A looped sample repeats its sustain loop for as long as the key (or the pedal) holds the note, dropping by the
+ * loop's decay on every pass so the note keeps dying away; once released it plays on from the loop towards its end
+ */
+
+import java.nio.ShortBuffer;
+
+public class Voice {
+    protected static final float SCALE = 1f / 32768f; // 16-bit PCM to float
+    public static final int RELEASE_FRAMES = 6615; // 150 ms fade after a note-off at 44.1 kHz
+    protected static final float LOOP_SILENCE = 1e-4f; // Loop gain (-80 dB) at which a looping note is finished
+    protected static final int MAX_LOOP_FRAMES = 30 * 44100; // Longest a loop that does not decay is held
+
+    protected boolean active; // True while the voice is sounding
+    protected int keyNum; // Key that started this voice
+    protected Sample sample; // Audio being played
+    protected double position; // Next frame to render, fractional when resampling
+    protected double increment; // Sample frames advanced per output frame
+    protected float gain; // Linear gain from note velocity and the sample's own gain
+    protected float loopGain; // Decay built up by passes through the sustain loop
+    protected long startOrder; // Engine note counter when the voice started, lower is older
+    protected float level; // Peak amplitude of the last rendered block, used to pick a voice to steal
+    protected boolean held; // True until the key is released
+    protected boolean sustained; // Key released but kept sounding by the sustain pedal
+    protected boolean releasing; // Fading out after a note-off
+    protected int releaseLeft; // Output frames left in the fade
+    protected float releaseStep; // Gain lost per output frame while fading
+
+    // Binds this voice to a sample played at the given pitch ratio and gain, and rewinds it
+    public void start(int keyNum, Sample sample, double pitchRatio, float gain, long startOrder)
+    {
+        this.keyNum = keyNum;
+        this.sample = sample;
+        this.position = 0;
+        this.increment = pitchRatio;
+        this.gain = gain * sample.getGain();
+        this.loopGain = 1f;
+        this.startOrder = startOrder;
+        this.level = 1f;
+        this.held = true;
+        this.sustained = false;
+        this.releasing = false;
+        this.active = true;
+    }
+
+    // Marks the key as released while the sustain pedal keeps the voice sounding
+    public void sustain()
+    {
+        this.held = false;
+        this.sustained = true;
+    }
+
+    // Starts fading the voice out over the given number of output frames; does nothing if it is already fading
+    public void release(int frames)
+    {
+        if (!this.active || this.releasing)
+            { return; }
+        this.held = false;
+        this.sustained = false;
+        this.releasing = true;
+        this.releaseLeft = Math.max(fadeLength(frames), 1);
+        this.releaseStep = 1f / this.releaseLeft;
+    }
+
+    // Output frames a release fade can last: shortened if the sample would run out first, so a note released near its
+    // end never cuts off mid-fade; voices that do not play through their sample override this
+    protected int fadeLength(int frames)
+    {
+        long remaining = (long) ((endPosition(this.sample, this.increment) - this.position) / this.increment);
+        return (int) Math.min(frames, remaining);
+    }
+
+    // Silences the voice and releases its sample
+    public void stop()
+    {
+        this.active = false;
+        this.sample = null;
+    }
+
+    // Advances the voice as if frames of output had already been rendered
+    public void skip(long frames)
+    {
+        if (!this.active)
+            { return; }
+        this.position += frames * this.increment;
+        if (looping() && this.position >= this.sample.getLoopEnd())
+        {
+            int length = this.sample.getLoopEnd() - this.sample.getLoopStart();
+            long passes = 1 + (long) ((this.position - this.sample.getLoopEnd()) / length);
+            this.position -= passes * length;
+            this.loopGain *= (float) Math.pow(this.sample.getLoopDecay(), passes);
+        }
+        if (this.releasing)
+            { this.releaseLeft -= (int) Math.min(frames, this.releaseLeft); }
+        if (this.position >= endPosition(this.sample, this.increment) || (this.releasing && this.releaseLeft == 0)
+            || this.loopGain < LOOP_SILENCE)
+            { stop(); }
+    }
+
+    // Returns the most output frames this kind of voice plays a sample for when nothing stops it early
+    public long duration(Sample sample, double pitchRatio)
+    {
+        return lengthOf(sample, pitchRatio);
+    }
+
+    // Returns how many output frames a sample lasts when played at a pitch ratio; a looped sample lasts until its
+    // loop has decayed to silence (or MAX_LOOP_FRAMES if it does not decay) and then plays out to its end
+    public static long lengthOf(Sample sample, double pitchRatio)
+    {
+        long frames = endPosition(sample, pitchRatio);
+        if (sample.isLooped())
+        {
+            int length = sample.getLoopEnd() - sample.getLoopStart();
+            double decay = sample.getLoopDecay();
+            long passes = decay < 1 ? (long) Math.ceil(Math.log(LOOP_SILENCE) / Math.log(decay)) : MAX_LOOP_FRAMES / length;
+            frames += Math.min(passes, MAX_LOOP_FRAMES / length) * length;
+        }
+        return (long) Math.ceil(frames / pitchRatio);
+    }
+
+    // Interpolation needs a frame after the current one, so resampled playback ends one frame early
+    private static int endPosition(Sample sample, double pitchRatio)
+    {
+        return pitchRatio == 1.0 ? sample.getFrames() : sample.getFrames() - 1;
+    }
+
+    // True while the note should keep repeating its sample's sustain loop
+    private boolean looping()
+    {
+        return !this.releasing && this.sample.isLooped();
+    }
+
+    public boolean isActive()
+    {
+        return this.active;
+    }
+
+    // Returns the key number this voice is playing
+    public int getKeyNum()
+    {
+        return this.keyNum;
+    }
+
+    public long getStartOrder()
+    {
+        return this.startOrder;
+    }
+
+    public float getLevel()
+    {
+        return this.level;
+    }
+
+    // Returns true while the key that started this voice is still down
+    public boolean isHeld()
+    {
+        return this.held;
+    }
+
+    public boolean isSustained()
+    {
+        return this.sustained;
+    }
+
+    public boolean isReleasing()
+    {
+        return this.releasing;
+    }
+
+    // Adds up to frames of audio into the mix starting at offset; stops the voice once the sample or its fade has ended
+    public void render(float [] left, float [] right, int offset, int frames)
+    {
+        if (this.releasing)
+            { frames = Math.min(frames, this.releaseLeft); }
+        if (this.increment == 1.0)
+            { renderDirect(left, right, offset, frames); }
+        else
+            { renderResampled(left, right, offset, frames); }
+    }
+
+    // Copies frames straight from the sample when no pitch shift is needed, jumping back at the loop end while held
+    private void renderDirect(float [] left, float [] right, int offset, int frames)
+    {
+        ShortBuffer pcm = this.sample.getPcm();
+        boolean looping = looping();
+        int stopAt = looping ? this.sample.getLoopEnd() : this.sample.getFrames();
+        int pos = (int) this.position;
+        int peak = 0;
+        float env = envelope();
+        float step = this.releasing ? this.releaseStep : 0f;
+        int i = offset;
+        while (i < offset + frames)
+        {
+            float scale = SCALE * this.gain * this.loopGain;
+            int count = Math.min(offset + frames - i, stopAt - pos);
+            int p = pos * SampleBank.CHANNELS;
+            for (int end = i + count; i < end; i++)
+            {
+                short l = pcm.get(p++);
+                short r = pcm.get(p++);
+                float g = scale * env;
+                left[i] += l * g;
+                right[i] += r * g;
+                env -= step;
+                peak = Math.max(peak, Math.max(Math.abs(l), Math.abs(r)));
+            }
+            pos += count;
+            if (pos < stopAt || !looping)
+                { break; }
+            pos = this.sample.getLoopStart();
+            this.loopGain *= this.sample.getLoopDecay();
+        }
+        this.level = peak * SCALE * this.gain * this.loopGain * env;
+        this.position = pos;
+        if (pos >= this.sample.getFrames() || endRelease(i - offset) || this.loopGain < LOOP_SILENCE)
+            { stop(); }
+    }
+
+    // Steps through the sample by the pitch ratio, interpolating between the four surrounding frames
+    private void renderResampled(float [] left, float [] right, int offset, int frames)
+    {
+        ShortBuffer pcm = this.sample.getPcm();
+        float scale = SCALE * this.gain * this.loopGain;
+        int last = this.sample.getFrames() - 1;
+        boolean looping = looping();
+        int loopEnd = looping ? this.sample.getLoopEnd() : last;
+        int loopLength = this.sample.getLoopEnd() - this.sample.getLoopStart();
+        double pos = this.position;
+        float peak = 0f;
+        float env = envelope();
+        float step = this.releasing ? this.releaseStep : 0f;
+        int i = offset;
+        for (; i < offset + frames; i++)
+        {
+            if (pos >= loopEnd)
+            {
+                if (!looping)
+                    { break; }
+                pos -= loopLength;
+                this.loopGain *= this.sample.getLoopDecay();
+                scale = SCALE * this.gain * this.loopGain;
+            }
+            int n = (int) pos;
+            float t = (float) (pos - n);
+            int p0 = Math.max(n - 1, 0) * SampleBank.CHANNELS;
+            int p1 = n * SampleBank.CHANNELS;
+            int p2 = p1 + SampleBank.CHANNELS;
+            int p3 = Math.min(n + 2, last) * SampleBank.CHANNELS;
+            float g = scale * env;
+            float l = cubic(pcm.get(p0), pcm.get(p1), pcm.get(p2), pcm.get(p3), t) * g;
+            float r = cubic(pcm.get(p0 + 1), pcm.get(p1 + 1), pcm.get(p2 + 1), pcm.get(p3 + 1), t) * g;
+            left[i] += l;
+            right[i] += r;
+            peak = Math.max(peak, Math.max(Math.abs(l), Math.abs(r)));
+            pos += this.increment;
+            env -= step;
+        }
+        this.level = peak;
+        this.position = pos;
+        if (pos >= last || endRelease(i - offset) || this.loopGain < LOOP_SILENCE)
+            { stop(); }
+    }
+
+    // Gain of the release fade at the next frame, 1 while the note is not fading
+    protected float envelope()
+    {
+        return this.releasing ? this.releaseLeft * this.releaseStep : 1f;
+    }
+
+    // Counts rendered frames off the fade; returns true once it has finished
+    protected boolean endRelease(int rendered)
+    {
+        if (!this.releasing)
+            { return false; }
+        this.releaseLeft -= rendered;
+        return this.releaseLeft <= 0;
+    }
+
+    // Catmull-Rom spline through y1..y2 at fraction t
+    private static float cubic(float y0, float y1, float y2, float y3, float t)
+    {
+        float a = -0.5f * y0 + 1.5f * y1 - 1.5f * y2 + 0.5f * y3;
+        float b = y0 - 2.5f * y1 + 2f * y2 - 0.5f * y3;
+        float c = -0.5f * y0 + 0.5f * y2;
+        return ((a * t + b) * t + c) * t + y1;
+    }
+}
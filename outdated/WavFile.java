@@ -0,0 +1,93 @@
+/*
+ * Minimal RIFF/WAVE header reader
+ * Locates the fmt and data chunks in a buffer so PCM can be used in place without going through AudioInputStream
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import javax.sound.sampled.AudioFormat;
+
+public class WavFile {
+    protected static final int PCM_FORMAT_TAG = 1;
+
+    protected int channels;
+    protected int sampleRate;
+    protected int bitsPerSample;
+    protected int dataOffset; // Byte offset of the first PCM frame
+    protected int dataLength; // Length of the PCM data in bytes
+
+    // Reads the header of a WAV file held in a buffer; the buffer's position is not changed
+    public static WavFile parse(ByteBuffer buffer) throws IOException
+    {
+        ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (b.remaining() < 12 || b.getInt(0) != 0x46464952 || b.getInt(8) != 0x45564157) // "RIFF", "WAVE"
+            { throw new IOException("Not a RIFF/WAVE file"); }
+
+        WavFile wav = new WavFile();
+        boolean haveFormat = false;
+        int pos = 12;
+        while (pos + 8 <= b.limit())
+        {
+            int id = b.getInt(pos);
+            int size = b.getInt(pos + 4);
+            int body = pos + 8;
+            if (id == 0x20746D66) // "fmt "
+            {
+                if (b.getShort(body) != PCM_FORMAT_TAG)
+                    { throw new IOException("Only uncompressed PCM is supported"); }
+                wav.channels = b.getShort(body + 2);
+                wav.sampleRate = b.getInt(body + 4);
+                wav.bitsPerSample = b.getShort(body + 14);
+                haveFormat = true;
+            }
+            else if (id == 0x61746164) // "data"
+            {
+                if (!haveFormat)
+                    { throw new IOException("data chunk before fmt chunk"); }
+                wav.dataOffset = body;
+                wav.dataLength = Math.min(size, b.limit() - body);
+                return wav;
+            }
+            pos = body + size + (size & 1); // Chunks are word aligned
+        }
+        throw new IOException("No data chunk found");
+    }
+
+    // Builds a 44-byte header for a WAV file holding dataLength bytes of bank-format PCM
+    public static byte [] header(long dataLength)
+    {
+        if (dataLength > 0xFFFFFFFFL - 36)
+            { throw new IllegalArgumentException("WAV data cannot exceed 4 GB"); }
+        ByteBuffer b = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0x46464952).putInt((int) (36 + dataLength)).putInt(0x45564157); // "RIFF" size "WAVE"
+        b.putInt(0x20746D66).putInt(16); // "fmt "
+        b.putShort((short) PCM_FORMAT_TAG).putShort((short) SampleBank.CHANNELS);
+        b.putInt((int) SampleBank.SAMPLE_RATE).putInt((int) SampleBank.SAMPLE_RATE * SampleBank.FRAME_SIZE);
+        b.putShort((short) SampleBank.FRAME_SIZE).putShort((short) 16);
+        b.putInt(0x61746164).putInt((int) dataLength); // "data"
+        return b.array();
+    }
+
+    // Returns the audio format of the PCM data
+    public AudioFormat getFormat()
+    {
+        return new AudioFormat(this.sampleRate, this.bitsPerSample, this.channels, this.bitsPerSample > 8, false);
+    }
+
+    // Returns true if the PCM can be played as-is by the engine
+    public boolean isBankFormat()
+    {
+        return getFormat().matches(SampleBank.FORMAT);
+    }
+
+    public int getDataOffset()
+    {
+        return this.dataOffset;
+    }
+
+    public int getDataLength()
+    {
+        return this.dataLength;
+    }
+}